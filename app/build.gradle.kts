@@ -29,6 +29,12 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    // Yayın istemcisi :tools modülündedir; sunucu testleri onu kaynak olarak derler
+    sourceSets {
+        getByName("test") {
+            java.srcDir("../tools/src/main/java")
+        }
+    }
 }
 
 dependencies {
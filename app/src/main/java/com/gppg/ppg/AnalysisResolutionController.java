@@ -0,0 +1,175 @@
+package com.gppg.ppg;
+
+import java.util.Arrays;
+
+/**
+ * Ölçülen kare işleme süresine göre analiz çözünürlüğünü, ROI seyreltme oranını ve bölge sayısını
+ * histerezisli olarak ayarlayan denetleyici. Android'e bağımlı değildir; zamanlama izleriyle test edilir.
+ *
+ * Piksel oranı modeli yalnızca hiç denenmemiş bir kademe için ilk tahmindir; tüm düzlemi gezen
+ * ön eleme gibi seyreltmeden bağımsız maliyetleri görmez. Bu yüzden her kademeden ayrılırken ölçülen
+ * kullanım saklanır ve bütçeyi aştığı ölçülmüş bir kademeye, geri çekilme süresi dolmadan çıkılmaz.
+ */
+class AnalysisResolutionController {
+
+    /** Tek bir kalite kademesi. */
+    static final class Level {
+        final int width;
+        final int height;
+        final int decimation; // ROI içinde her kaçıncı piksel okunacak
+        final int zoneCount;
+
+        Level(int width, int height, int decimation, int zoneCount) {
+            this.width = width;
+            this.height = height;
+            this.decimation = decimation;
+            this.zoneCount = zoneCount;
+        }
+
+        /** Kare başına okunan piksel sayısı; kademeler arası maliyet oranı için kullanılır. */
+        double relativeCost() {
+            return (double) width * height / (decimation * decimation);
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "/d" + decimation + "/z" + zoneCount;
+        }
+    }
+
+    /** En ucuzdan en pahalıya sıralı kademeler; 1 numara eski sabit ayardır. */
+    static final Level[] DEFAULT_LEVELS = {
+            new Level(120, 160, 2, 2),
+            new Level(120, 160, 1, 4),
+            new Level(240, 320, 2, 4),
+            new Level(240, 320, 1, 8),
+            new Level(480, 640, 2, 8),
+    };
+    static final int DEFAULT_LEVEL_INDEX = 1;
+
+    private static final float DEFAULT_TARGET_UTILIZATION = 0.5f;
+    private static final float EMA_ALPHA = 0.1f;
+    private static final int FRAMES_TO_STEP_DOWN = 15;
+    private static final int FRAMES_TO_STEP_UP = 90;
+    private static final int COOLDOWN_FRAMES = 30;
+    private static final int RETRY_BACKOFF_FRAMES = 1800; // ~60 sn; her yeni başarısızlıkta ikiye katlanır
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private final Level[] levels;
+    private final float upperUtilization;
+    private final float lowerUtilization;
+
+    private volatile int levelIndex;
+    private volatile boolean frozen = false;
+    private float utilizationEma = -1f;
+    private int overBudgetFrames = 0;
+    private int underBudgetFrames = 0;
+    private int cooldownFrames = 0;
+    private long frameCount = 0;
+    // Kademe başına son ölçülen kullanım (-1: ölçülmedi) ve yeniden deneme için geri çekilme
+    private final float[] measuredUtilization;
+    private final int[] failures;
+    private final long[] retryAfterFrame;
+
+    AnalysisResolutionController() {
+        this(DEFAULT_LEVELS, DEFAULT_LEVEL_INDEX, DEFAULT_TARGET_UTILIZATION);
+    }
+
+    /**
+     * @param targetUtilization kare süresinin analiz için kullanılabilecek oranı; üst sınır budur,
+     *                          yukarı adım ise kullanım bunun yarısının altındayken ve üst kademenin
+     *                          tahmini kullanımı hedefi aşmıyorsa denenir.
+     */
+    AnalysisResolutionController(Level[] levels, int initialLevel, float targetUtilization) {
+        if (levels.length == 0) throw new IllegalArgumentException("En az bir kademe gerekli");
+        this.levels = levels.clone();
+        this.levelIndex = Math.max(0, Math.min(levels.length - 1, initialLevel));
+        this.upperUtilization = targetUtilization;
+        this.lowerUtilization = targetUtilization * 0.5f;
+        this.measuredUtilization = new float[levels.length];
+        Arrays.fill(measuredUtilization, -1f);
+        this.failures = new int[levels.length];
+        this.retryAfterFrame = new long[levels.length];
+    }
+
+    /**
+     * Her kare sonunda analiz iş parçacığından çağrılır.
+     *
+     * @return kademe değiştiyse true
+     */
+    public boolean onFrame(long processingNanos, long frameIntervalNanos) {
+        if (frameIntervalNanos <= 0) return false;
+        frameCount++;
+        float utilization = (float) processingNanos / frameIntervalNanos;
+        utilizationEma = (utilizationEma < 0)
+                ? utilization
+                : utilizationEma + EMA_ALPHA * (utilization - utilizationEma);
+
+        if (frozen) return false;
+        if (cooldownFrames > 0) {
+            cooldownFrames--;
+            return false;
+        }
+
+        if (utilizationEma > upperUtilization) {
+            underBudgetFrames = 0;
+            if (++overBudgetFrames >= FRAMES_TO_STEP_DOWN && levelIndex > 0) {
+                return changeLevel(levelIndex - 1);
+            }
+        } else if (utilizationEma < lowerUtilization && levelIndex < levels.length - 1) {
+            overBudgetFrames = 0;
+            // Üst kademenin kullanımı hedefi aşacaksa yukarı çıkılmaz (salınım önlenir)
+            if (predictUtilization(levelIndex + 1) > upperUtilization) {
+                underBudgetFrames = 0;
+            } else if (++underBudgetFrames >= FRAMES_TO_STEP_UP) {
+                return changeLevel(levelIndex + 1);
+            }
+        } else {
+            overBudgetFrames = 0;
+            underBudgetFrames = 0;
+        }
+        return false;
+    }
+
+    /** Ölçüm varsa ve geri çekilme sürüyorsa ölçüm, yoksa piksel oranı modeli kullanılır. */
+    private double predictUtilization(int index) {
+        if (measuredUtilization[index] >= 0
+                && (measuredUtilization[index] <= upperUtilization || frameCount < retryAfterFrame[index])) {
+            return measuredUtilization[index];
+        }
+        return utilizationEma * levels[index].relativeCost() / levels[levelIndex].relativeCost();
+    }
+
+    private boolean changeLevel(int newIndex) {
+        int oldIndex = levelIndex;
+        if (utilizationEma >= 0) measuredUtilization[oldIndex] = utilizationEma;
+        if (newIndex < oldIndex) {
+            // Bütçeyi aşan kademe: her başarısızlıkta daha uzun süre denenmez
+            int shift = Math.min(failures[oldIndex]++, MAX_BACKOFF_SHIFT);
+            retryAfterFrame[oldIndex] = frameCount + ((long) RETRY_BACKOFF_FRAMES << shift);
+        }
+        levelIndex = newIndex;
+        overBudgetFrames = 0;
+        underBudgetFrames = 0;
+        cooldownFrames = COOLDOWN_FRAMES;
+        utilizationEma = -1f; // yeni kademenin maliyeti farklı, ortalama baştan
+        return true;
+    }
+
+    /** Kayıt sırasında örnekleme düzeni sabit kalmalı; dondurulan denetleyici kademe değiştirmez. */
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    public Level getCurrentLevel() {
+        return levels[levelIndex];
+    }
+
+    public int getLevelIndex() {
+        return levelIndex;
+    }
+
+    public float getUtilization() {
+        return Math.max(0f, utilizationEma);
+    }
+}
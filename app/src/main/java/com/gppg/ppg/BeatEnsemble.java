@@ -0,0 +1,376 @@
+package com.gppg.ppg;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Akış halinde vuru topluluğu ortalaması.
+ * <p>
+ * Kare başına bölge ortalaması alınır, yavaş taban çizgisi çıkarılır ve vurular histerezisli bir
+ * tepe/çukur izleyicisiyle bulunur ve yükselişlerin yarı yükseklik noktaları arasında bölütlenir.
+ * Histerezis, sönümlenen tepe-çukur zarfının %60'ıdır; böylece dikrotik çentik ayrı bir vuru
+ * sayılmaz. Her vuru zaman damgalarına göre sabit uzunluklu bir şablona yeniden örneklenir ve
+ * z-normalize edilir; kabul edilen vurular ağırlıklı ortalama şablonuna eklenir. Vuru başına
+ * maliyet O(şablon uzunluğu), bellek sabittir. Süresi, genliği veya şablonla korelasyonu beklenenden sapan vurular reddedilir;
+ * arka arkaya çok sayıda red, şablonun kötü bir başlangıca kilitlendiğini gösterdiğinden şablon
+ * yeniden başlatılır. Örnekleme hızı kare zaman damgalarından ölçülür.
+ * <p>
+ * Tüm çağrılar analiz iş parçacığından yapılmalıdır. Android'e bağımlı değildir.
+ */
+class BeatEnsemble {
+
+    /** Bölütlenen her vuru için özet. */
+    static final class Beat {
+        final long startNanos;   // şablon penceresinin başlangıcı
+        final long durationNanos;
+        final float amplitude;   // tepe - başlangıç çukuru (taban çizgisi çıkarılmış)
+        final float meanLevel;   // vurunun taban çizgisi çıkarılmamış ortalaması
+        final float correlation; // şablonla Pearson korelasyonu; şablon yoksa NaN
+        final boolean accepted;
+
+        Beat(long startNanos, long durationNanos, float amplitude, float meanLevel,
+             float correlation, boolean accepted) {
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.amplitude = amplitude;
+            this.meanLevel = meanLevel;
+            this.correlation = correlation;
+            this.accepted = accepted;
+        }
+    }
+
+    interface Listener {
+        void onBeat(Beat beat);
+    }
+
+    static final int DEFAULT_TEMPLATE_LENGTH = 64;
+
+    static final long MIN_BEAT_NANOS = 300_000_000L;   // 200 atım/dk
+    static final long MAX_BEAT_NANOS = 2_000_000_000L; // 30 atım/dk
+    static final float MIN_CORRELATION = 0.8f;
+    static final float MAX_INTERVAL_DEVIATION = 0.3f;
+    static final float MAX_AMPLITUDE_RATIO = 2.5f;
+
+    private static final int WARMUP_BEATS = 3;
+    private static final int EFFECTIVE_BEATS = 16;
+    private static final int MAX_CONSECUTIVE_REJECTS = 5;
+    private static final int HISTORY_CAPACITY = 512; // MAX_BEAT_NANOS süresini 240 fps'e kadar kapsar
+    private static final double BASELINE_TAU_SECONDS = 1.5;
+    private static final double ENVELOPE_TAU_SECONDS = 4.0;
+    private static final float HYSTERESIS_FRACTION = 0.6f;
+    private static final float MAX_ENVELOPE_GROWTH = 1.5f; // artefakt tek salınımda zarfı şişirmesin
+    private static final double RMS_TAU_SECONDS = 2.0;
+    private static final double EMA_ALPHA = 0.2;
+    private static final double FRAME_INTERVAL_EMA_ALPHA = 0.02;
+    private static final double WINDOW_LEAD = 0.2; // pencere, yarı yükseklik noktasından aralığın %20'si önce başlar
+
+    private final int templateLength;
+    private final Listener listener;
+
+    private final float[] template;
+    private final float[] beat;
+    private int templateBeats = 0;
+    private int acceptedBeats = 0;
+    private int rejectedBeats = 0;
+    private int consecutiveRejects = 0;
+    private double intervalEmaNanos = 0;
+    private double amplitudeEma = 0;
+
+    // Son örneklerin halka tamponu (taban çizgisi çıkarılmış değer, ham değer, zaman)
+    private final float[] historyValues = new float[HISTORY_CAPACITY];
+    private final float[] historyLevels = new float[HISTORY_CAPACITY];
+    private final long[] historyTimes = new long[HISTORY_CAPACITY];
+    private long sampleIndex = 0;
+
+    // Taban çizgisi ve örnekleme hızı
+    private double baseline;
+    private double meanSquare = 0;
+    private double envelope = 0;
+    private long lastTimestampNanos = -1;
+    private double frameIntervalEmaNanos = 0;
+
+    // Histerezisli tepe/çukur izleyicisi
+    private boolean rising = false;
+    private float extremeValue;
+    private long extremeIndex;
+    private long troughIndex = -1;
+    private float troughValue;
+    private long lastFiducialNanos = -1;
+
+    BeatEnsemble(Listener listener) {
+        this(DEFAULT_TEMPLATE_LENGTH, listener);
+    }
+
+    /** @param listener her vuru için çağrılır; null olabilir */
+    BeatEnsemble(int templateLength, Listener listener) {
+        this.templateLength = templateLength;
+        this.listener = listener;
+        this.template = new float[templateLength];
+        this.beat = new float[templateLength];
+    }
+
+    /** Yeni bir ölçüm için şablonu ve tüm durumu temizler. */
+    public void reset() {
+        Arrays.fill(template, 0f);
+        templateBeats = 0;
+        acceptedBeats = 0;
+        rejectedBeats = 0;
+        consecutiveRejects = 0;
+        intervalEmaNanos = 0;
+        amplitudeEma = 0;
+        frameIntervalEmaNanos = 0;
+        meanSquare = 0;
+        envelope = 0;
+        breakSequence();
+    }
+
+    /** Sinyal kesildiğinde bölütlemeyi baştan başlatır; şablon korunur. */
+    public void breakSequence() {
+        sampleIndex = 0;
+        lastTimestampNanos = -1;
+        troughIndex = -1;
+        lastFiducialNanos = -1;
+        rising = false;
+    }
+
+    /** Bir kamera karesinin bölge örnekleriyle çağrılır. */
+    public void onFrame(long timestampNanos, float[] samples) {
+        if (samples.length == 0) return;
+        float level = 0;
+        for (float sample : samples) level += sample;
+        level /= samples.length;
+
+        if (lastTimestampNanos < 0) {
+            baseline = level;
+            extremeValue = 0;
+            extremeIndex = sampleIndex;
+        } else {
+            long dt = timestampNanos - lastTimestampNanos;
+            if (dt <= 0) return;
+            frameIntervalEmaNanos = frameIntervalEmaNanos == 0 ? dt
+                    : frameIntervalEmaNanos + FRAME_INTERVAL_EMA_ALPHA * (dt - frameIntervalEmaNanos);
+            baseline += (level - baseline) * (1 - Math.exp(-dt / 1e9 / BASELINE_TAU_SECONDS));
+            envelope *= Math.exp(-dt / 1e9 / ENVELOPE_TAU_SECONDS);
+        }
+        lastTimestampNanos = timestampNanos;
+
+        float value = (float) (level - baseline);
+        meanSquare += (value * value - meanSquare) * (1 - Math.exp(-frameIntervalEmaNanos / 1e9 / RMS_TAU_SECONDS));
+        int slot = (int) (sampleIndex % HISTORY_CAPACITY);
+        historyValues[slot] = value;
+        historyLevels[slot] = level;
+        historyTimes[slot] = timestampNanos;
+        track(value);
+        sampleIndex++;
+    }
+
+    private void track(float value) {
+        // Zarf henüz oluşmadıysa gürültü tabanı olarak RMS kullanılır
+        float hysteresis = (float) Math.max(HYSTERESIS_FRACTION * Math.max(envelope, Math.sqrt(meanSquare)), 1e-6);
+        if (rising) {
+            if (value > extremeValue) {
+                extremeValue = value;
+                extremeIndex = sampleIndex;
+            } else if (value < extremeValue - hysteresis) {
+                float swing = extremeValue - troughValue;
+                envelope = envelope == 0 ? swing : Math.max(envelope, Math.min(swing, envelope * MAX_ENVELOPE_GROWTH));
+                onUpstroke(troughIndex, troughValue, extremeIndex, extremeValue);
+                rising = false;
+                extremeValue = value;
+                extremeIndex = sampleIndex;
+            }
+        } else {
+            if (value < extremeValue) {
+                extremeValue = value;
+                extremeIndex = sampleIndex;
+            } else if (value > extremeValue + hysteresis) {
+                troughIndex = extremeIndex;
+                troughValue = extremeValue;
+                rising = true;
+                extremeValue = value;
+                extremeIndex = sampleIndex;
+            }
+        }
+    }
+
+    /**
+     * Bir yükseliş (çukur → tepe) tamamlandı. Düz diyastol tabanındaki çukurun yeri gürültüyle
+     * kaydığından vurular yükselişin yarı yükseklik noktasına göre hizalanır; önceki yarı yükseklik
+     * noktasından bu yana geçen vuru değerlendirilir.
+     */
+    private void onUpstroke(long troughIdx, float trough, long peakIdx, float peak) {
+        if (troughIdx < 0 || sampleIndex - troughIdx >= HISTORY_CAPACITY) return;
+        float amplitude = peak - trough;
+        long fiducial = crossingTime(troughIdx, peakIdx, trough + amplitude / 2);
+        long previous = lastFiducialNanos;
+        lastFiducialNanos = fiducial;
+        if (previous < 0) return;
+
+        long duration = fiducial - previous;
+        long start = previous - (long) (duration * WINDOW_LEAD);
+        if (duration < MIN_BEAT_NANOS || duration > MAX_BEAT_NANOS || amplitude <= 0) {
+            rejectedBeats++;
+            emit(start, duration, amplitude, 0, Float.NaN, false);
+            return;
+        }
+        long first = indexAtOrBefore(start);
+        if (first < 0) return; // pencere artık geçmiş tamponunda değil
+
+        float meanLevel = resample(first, start, duration);
+        float correlation = templateBeats > 0 ? correlate() : Float.NaN;
+
+        boolean accepted = true;
+        if (templateBeats >= WARMUP_BEATS) {
+            double intervalDeviation = Math.abs(duration - intervalEmaNanos) / intervalEmaNanos;
+            double amplitudeRatio = amplitude / amplitudeEma;
+            if (intervalDeviation > MAX_INTERVAL_DEVIATION
+                    || correlation < MIN_CORRELATION
+                    || amplitudeRatio > MAX_AMPLITUDE_RATIO || amplitudeRatio < 1 / MAX_AMPLITUDE_RATIO) {
+                accepted = false;
+            }
+        }
+        if (!accepted && consecutiveRejects + 1 >= MAX_CONSECUTIVE_REJECTS) {
+            // Şablon veya tahminler kötü bir başlangıca kilitlenmiş: bu vurudan yeniden başla
+            templateBeats = 0;
+            intervalEmaNanos = 0;
+            amplitudeEma = 0;
+            accepted = true;
+        }
+        if (accepted) {
+            addToTemplate();
+            acceptedBeats++;
+            consecutiveRejects = 0;
+            intervalEmaNanos = intervalEmaNanos == 0 ? duration : intervalEmaNanos + EMA_ALPHA * (duration - intervalEmaNanos);
+            amplitudeEma = amplitudeEma == 0 ? amplitude : amplitudeEma + EMA_ALPHA * (amplitude - amplitudeEma);
+        } else {
+            rejectedBeats++;
+            consecutiveRejects++;
+        }
+        emit(start, duration, amplitude, meanLevel, correlation, accepted);
+    }
+
+    private void emit(long start, long duration, float amplitude, float meanLevel, float correlation, boolean accepted) {
+        if (listener != null) listener.onBeat(new Beat(start, duration, amplitude, meanLevel, correlation, accepted));
+    }
+
+    /** Değerin [fromIdx, toIdx] aralığında ilk kez level'a ulaştığı an (doğrusal ara değerleme). */
+    private long crossingTime(long fromIdx, long toIdx, float level) {
+        for (long i = fromIdx; i < toIdx; i++) {
+            int a = (int) (i % HISTORY_CAPACITY);
+            int b = (int) ((i + 1) % HISTORY_CAPACITY);
+            if (historyValues[b] >= level) {
+                float rise = historyValues[b] - historyValues[a];
+                float fraction = rise > 0 ? (level - historyValues[a]) / rise : 1f;
+                fraction = Math.max(0f, Math.min(1f, fraction));
+                return historyTimes[a] + (long) ((historyTimes[b] - historyTimes[a]) * fraction);
+            }
+        }
+        return historyTimes[(int) (toIdx % HISTORY_CAPACITY)];
+    }
+
+    /** Zamanı t'den büyük olmayan en son örneğin indeksi; geçmişte yoksa -1. */
+    private long indexAtOrBefore(long t) {
+        long oldest = Math.max(0, sampleIndex - HISTORY_CAPACITY + 1);
+        for (long i = sampleIndex; i >= oldest; i--) {
+            if (historyTimes[(int) (i % HISTORY_CAPACITY)] <= t) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * [startNanos, startNanos + durationNanos) penceresini {@link #beat} dizisine doğrusal ara
+     * değerlemeyle yeniden örnekler ve z-normalize eder; penceredeki ham ortalama düzeyi döndürür.
+     */
+    private float resample(long first, long startNanos, long durationNanos) {
+        long index = first;
+        for (int j = 0; j < templateLength; j++) {
+            long t = startNanos + durationNanos * j / templateLength;
+            while (index + 1 <= sampleIndex && historyTimes[(int) ((index + 1) % HISTORY_CAPACITY)] <= t) index++;
+            int a = (int) (index % HISTORY_CAPACITY);
+            int b = (int) (Math.min(index + 1, sampleIndex) % HISTORY_CAPACITY);
+            long span = historyTimes[b] - historyTimes[a];
+            float fraction = span > 0 ? (float) (t - historyTimes[a]) / span : 0f;
+            beat[j] = historyValues[a] + (historyValues[b] - historyValues[a]) * Math.max(0f, Math.min(1f, fraction));
+        }
+        normalize(beat);
+
+        long endNanos = startNanos + durationNanos;
+        double levelSum = 0;
+        int levelCount = 0;
+        for (long i = first; i <= sampleIndex && historyTimes[(int) (i % HISTORY_CAPACITY)] < endNanos; i++) {
+            levelSum += historyLevels[(int) (i % HISTORY_CAPACITY)];
+            levelCount++;
+        }
+        return levelCount > 0 ? (float) (levelSum / levelCount) : 0f;
+    }
+
+    private static void normalize(float[] values) {
+        double sum = 0;
+        for (float v : values) sum += v;
+        double mean = sum / values.length;
+        double squares = 0;
+        for (float v : values) squares += (v - mean) * (v - mean);
+        double std = Math.sqrt(squares / values.length);
+        float scale = std > 0 ? (float) (1 / std) : 0f;
+        for (int i = 0; i < values.length; i++) values[i] = (float) (values[i] - mean) * scale;
+    }
+
+    /** Normalize vuru ile şablon arasındaki Pearson korelasyonu. */
+    private float correlate() {
+        double templateSum = 0;
+        for (float v : template) templateSum += v;
+        double templateMean = templateSum / templateLength;
+        double dot = 0;
+        double templateSquares = 0;
+        for (int i = 0; i < templateLength; i++) {
+            double centered = template[i] - templateMean;
+            dot += beat[i] * centered;
+            templateSquares += centered * centered;
+        }
+        if (templateSquares <= 0) return 0f;
+        // Vuru z-normalize olduğundan kareler toplamı şablon uzunluğuna eşittir
+        return (float) (dot / Math.sqrt(templateSquares * templateLength));
+    }
+
+    private void addToTemplate() {
+        templateBeats++;
+        float weight = 1f / Math.min(templateBeats, EFFECTIVE_BEATS);
+        for (int i = 0; i < templateLength; i++) {
+            template[i] += (beat[i] - template[i]) * weight;
+        }
+    }
+
+    /** Güncel şablonun kopyası; henüz kabul edilmiş vuru yoksa sıfırlardan oluşur. */
+    public float[] getTemplate() {
+        return template.clone();
+    }
+
+    public int getAcceptedBeats() {
+        return acceptedBeats;
+    }
+
+    public int getRejectedBeats() {
+        return rejectedBeats;
+    }
+
+    /** Kabul edilen vuruların ortalama aralığı (ns, üstel ortalama); henüz vuru yoksa 0. */
+    public long getMeanIntervalNanos() {
+        return (long) intervalEmaNanos;
+    }
+
+    /** Kare zaman damgalarından ölçülen örnekleme hızı (Hz); henüz ölçülmediyse 0. */
+    public double getSampleRateHz() {
+        return frameIntervalEmaNanos > 0 ? 1e9 / frameIntervalEmaNanos : 0;
+    }
+
+    /** Oturum dosyası için şablon özeti ve değerleri (satır başına bir değer). */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("template_length,accepted_beats,rejected_beats,mean_interval_ms,sample_rate_hz\n");
+        sb.append(templateLength).append(',').append(acceptedBeats).append(',').append(rejectedBeats).append(',')
+                .append(getMeanIntervalNanos() / 1_000_000L).append(',')
+                .append(String.format(Locale.US, "%.2f", getSampleRateHz())).append('\n');
+        for (float value : template) sb.append(value).append('\n');
+        return sb.toString();
+    }
+}
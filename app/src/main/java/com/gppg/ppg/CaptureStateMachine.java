@@ -0,0 +1,178 @@
+package com.gppg.ppg;
+
+import java.util.Arrays;
+
+/**
+ * Analiz tarafında çalışan kayıt durum makinesi. Geçişler UI zamanlayıcılarıyla değil, kamera
+ * karelerinin sensör zaman damgalarıyla belirlenir; böylece UI takılsa bile bir kayıt tam olarak
+ * istenen süre aralığındaki ([t0, t0 + süre)) örnekleri içerir.
+ * <p>
+ * Dengelenme süresi bir üst sınırdır: bir {@link StabilizationDetector} verilmişse sinyal
+ * durağanlaştığı anda kayda geçilir.
+ * <p>
+ * Tüm çağrılar tek bir iş parçacığından (analiz yürütücüsü) yapılmalıdır; dinleyici de aynı
+ * iş parçacığında çağrılır. Android'e bağımlı değildir.
+ */
+class CaptureStateMachine {
+
+    enum State {
+        IDLE,
+        WAITING_FOR_FINGER,
+        STABILIZING,
+        RECORDING,
+        COMPLETE
+    }
+
+    interface Listener {
+        void onStateChanged(State previous, State current);
+
+        /**
+         * Geçen süre tam saniye değiştikçe çağrılır.
+         *
+         * @param totalMillis aşamanın toplam süresi; süresiz kayıtta 0
+         */
+        void onTick(State state, long elapsedMillis, long totalMillis);
+
+        /** Kayıt sırasında her kare için, kayda giren örneklerle çağrılır. */
+        void onRecordingSamples(long timestampNanos, float[] samples);
+
+        /** Süreli kayıt tamamlandığında tüm örneklerle çağrılır. */
+        void onRecordingComplete(float[] samples);
+    }
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final long stabilizationNanos;
+    private final StabilizationDetector stabilizationDetector;
+    private final Listener listener;
+
+    private State state = State.IDLE;
+    private long recordingNanos;
+    private long phaseStartNanos;
+    private long lastTickSecond;
+    private float[] buffer = new float[INITIAL_CAPACITY];
+    private int sampleCount = 0;
+    private long lastStabilizationNanos = 0;
+
+    CaptureStateMachine(long stabilizationNanos, Listener listener) {
+        this(stabilizationNanos, null, listener);
+    }
+
+    /**
+     * @param stabilizationNanos    en uzun dengelenme süresi
+     * @param stabilizationDetector erken çıkış için durağanlık algılayıcı; null ise süre hep beklenir
+     */
+    CaptureStateMachine(long stabilizationNanos, StabilizationDetector stabilizationDetector, Listener listener) {
+        this.stabilizationNanos = stabilizationNanos;
+        this.stabilizationDetector = stabilizationDetector;
+        this.listener = listener;
+    }
+
+    /**
+     * Yeni bir ölçüm başlatır.
+     *
+     * @param recordingNanos kayıt süresi; 0 veya negatifse kayıt durdurulana kadar sürer
+     */
+    public void start(long recordingNanos) {
+        this.recordingNanos = recordingNanos;
+        moveTo(State.WAITING_FOR_FINGER);
+    }
+
+    public void reset() {
+        moveTo(State.IDLE);
+    }
+
+    public void onFrame(long timestampNanos, boolean signalGood, float[] samples) {
+        if (state == State.IDLE || state == State.COMPLETE) return;
+
+        if (!signalGood) {
+            if (state != State.WAITING_FOR_FINGER) moveTo(State.WAITING_FOR_FINGER);
+            return;
+        }
+
+        switch (state) {
+            case WAITING_FOR_FINGER:
+                beginPhase(State.STABILIZING, timestampNanos);
+                break;
+            case STABILIZING:
+                boolean converged = stabilizationDetector != null
+                        && stabilizationDetector.onFrame(timestampNanos, samples);
+                if (converged || timestampNanos - phaseStartNanos >= stabilizationNanos) {
+                    lastStabilizationNanos = timestampNanos - phaseStartNanos;
+                    beginPhase(State.RECORDING, timestampNanos);
+                    record(timestampNanos, samples);
+                } else {
+                    tick(timestampNanos, stabilizationNanos);
+                }
+                break;
+            case RECORDING:
+                if (recordingNanos > 0 && timestampNanos - phaseStartNanos >= recordingNanos) {
+                    // Bu kare aralığın dışında; kayda girmez
+                    float[] recorded = Arrays.copyOf(buffer, sampleCount);
+                    moveTo(State.COMPLETE);
+                    listener.onRecordingComplete(recorded);
+                } else {
+                    record(timestampNanos, samples);
+                    tick(timestampNanos, Math.max(0, recordingNanos));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void record(long timestampNanos, float[] samples) {
+        if (recordingNanos > 0) {
+            // Süresiz kayıtta örnekler bellekte biriktirilmez
+            if (sampleCount + samples.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, sampleCount + samples.length));
+            }
+            System.arraycopy(samples, 0, buffer, sampleCount, samples.length);
+            sampleCount += samples.length;
+        }
+        listener.onRecordingSamples(timestampNanos, samples);
+    }
+
+    private void beginPhase(State next, long timestampNanos) {
+        if (next == State.STABILIZING && stabilizationDetector != null) stabilizationDetector.reset();
+        moveTo(next);
+        phaseStartNanos = timestampNanos;
+        lastTickSecond = -1;
+        tick(timestampNanos, next == State.STABILIZING ? stabilizationNanos : Math.max(0, recordingNanos));
+    }
+
+    private void tick(long timestampNanos, long totalNanos) {
+        long elapsedMillis = (timestampNanos - phaseStartNanos) / 1_000_000L;
+        long second = elapsedMillis / 1000;
+        if (second != lastTickSecond) {
+            lastTickSecond = second;
+            listener.onTick(state, elapsedMillis, totalNanos / 1_000_000L);
+        }
+    }
+
+    private void moveTo(State next) {
+        if (next == State.RECORDING || next == State.WAITING_FOR_FINGER || next == State.IDLE) {
+            sampleCount = 0;
+        }
+        State previous = state;
+        state = next;
+        listener.onStateChanged(previous, next);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Son tamamlanan dengelenme aşamasının süresi (sensör zamanı). */
+    public long getLastStabilizationNanos() {
+        return lastStabilizationNanos;
+    }
+
+    public long getStabilizationBudgetNanos() {
+        return stabilizationNanos;
+    }
+
+    public int getRecordedSampleCount() {
+        return sampleCount;
+    }
+}
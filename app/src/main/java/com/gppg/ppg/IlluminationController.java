@@ -0,0 +1,416 @@
+package com.gppg.ppg;
+
+import java.util.Arrays;
+
+/**
+ * Ekranı ışık kaynağı olarak kullanan ön kamera düzeni için kapalı döngü aydınlatma denetleyicisi.
+ * <p>
+ * Arama üç adımdır:
+ * <ol>
+ *     <li>Parlaklık tavanı: V düzlemi histogramında doymuş piksel oranı sınırı aşmayan en yüksek
+ *     parlaklık ikili aramayla bulunur. Doyma tek karede görüldüğü için nabız ölçmeye gerek yoktur;
+ *     doymadıkça daha çok ışık AC/DC oranını düşürmez.</li>
+ *     <li>Kaba tarama: 120° aralıklı üç renk tonu ölçülür. Tarama tüm ton çemberini kapsadığı için
+ *     nabzın hiç görünmediği bir tonda (düz bölge) başlamak aramayı takıltmaz.</li>
+ *     <li>İnceltme: en iyi tonun iki yanındaki ({@link #REFINE_STEP}) adaylar ölçülür; gürültü payı
+ *     içinde kalan farklar mevcut ayarı değiştirmez.</li>
+ * </ol>
+ * Her aday kısa bir oturma süresinden sonra 0,4-0,7 sn ölçülür. Pencere bir vurudan kısa olduğu için
+ * tepeden tepeye salınım nabzın evresine bağlı kalırdı; bunun yerine pencereye sinüs uydurulur ve
+ * puan, uydurulan genliğin ortalamaya oranıdır (AC/DC). Frekans tüm pencerelerin ortak en iyi
+ * uyumundan kestirilir, adayların puanı her kararda bu kestirimle yeniden hesaplanır. Ölçüm sırasında
+ * doyan adayın parlaklığı düşürülüp ölçüm yeniden başlar; uydurulan nabız tepesinde doyacağı
+ * öngörülen adayın ölçümü korunur, yalnızca çalışma parlaklığı düşürülür.
+ * <p>
+ * İlk iki adım boyunca ({@link #isSearching()}) ışık büyük adımlarla değişir ve dengelenme beklemelidir;
+ * inceltme küçük adımlıdır ve dengelenmeyle birlikte yürüyebilir. Kayıt boyunca {@link #lock()} ile
+ * sabitlenir. Android'e bağımlı değildir.
+ * <p>
+ * Tüm çağrılar analiz iş parçacığından yapılmalıdır.
+ */
+class IlluminationController {
+
+    enum Phase {
+        SEARCHING,
+        REFINING,
+        CONVERGED,
+        LOCKED
+    }
+
+    static final int HISTOGRAM_BINS = 256;
+    static final int SATURATION_LEVEL = 250;
+    static final float SATURATION_LIMIT = 0.02f;
+    static final int REFINE_STEP = 40;
+
+    private static final long SETTLE_NANOS = 100_000_000L;
+    // Sinüs uydurma evreden bağımsız olduğu için pencere bir vurudan kısa olabilir; ancak frekans
+    // ile genliğin ayrışması için kestirilen periyodun en az WINDOW_PERIODS katı ölçülür
+    private static final long MIN_MEASURE_NANOS = 400_000_000L;
+    private static final long MAX_MEASURE_NANOS = 700_000_000L;
+    private static final double WINDOW_PERIODS = 0.4;
+    // Güvenlik sınırı; normalde arama ~4 sn'de biter
+    private static final long SEARCH_BUDGET_NANOS = 6_000_000_000L;
+    private static final int COARSE_STEP = 120;
+    private static final int COARSE_COUNT = 3;
+    private static final int CEILING_TOLERANCE = 16;
+    // Tavan tek karede ölçülür; karenin nabzın dibine denk gelmesi için V düzleminde pay
+    private static final int CEILING_MARGIN = 10;
+    private static final int SATURATION_BACKOFF = 24;
+    // Bundan küçük göreli puan farkları gürültü sayılır
+    private static final double TIE_TOLERANCE = 0.05;
+    private static final int MAX_BRIGHTNESS = 255;
+    private static final int MAX_CANDIDATES = COARSE_COUNT + 2;
+    // 42-150 vuru/dk aranan nabız frekansları
+    private static final double MIN_PULSE_HZ = 0.7;
+    private static final double PULSE_HZ_STEP = 0.05;
+    private static final int FREQUENCY_COUNT = 37;
+    // En iyi frekansın artığı en kötününkinin bu oranından küçükse kestirime güvenilir
+    private static final double FREQUENCY_CONFIDENCE = 0.5;
+    // 0,7 sn'lik pencere 180 fps'e kadar sığar
+    private static final int WINDOW_CAPACITY = 128;
+
+    private enum Step {
+        CEILING,
+        COARSE,
+        REFINE
+    }
+
+    private Phase phase = Phase.SEARCHING;
+    private Step step;
+    private int hue;
+    private int brightness;
+    private int searchBrightness;
+    private double bestScore = Double.NaN;
+    private boolean brightnessEnabled = true;
+    private boolean budgetExhausted = false;
+
+    // Parlaklık tavanı aramasında bilinen en yüksek doymamış ve en düşük doymuş değerler
+    private int ceilingLow;
+    private int ceilingHigh;
+
+    // Ölçülen adaylar; puanlar nabız frekansı kestirimi güncellendikçe yeniden hesaplanır
+    private final int[] candidateHue = new int[MAX_CANDIDATES];
+    private final int[] candidateBrightness = new int[MAX_CANDIDATES];
+    private final double[] candidateMean = new double[MAX_CANDIDATES];
+    private final double[] candidateSaturation = new double[MAX_CANDIDATES];
+    private final double[][] candidateAmplitude = new double[MAX_CANDIDATES][FREQUENCY_COUNT];
+    private final double[] frequencyResidual = new double[FREQUENCY_COUNT];
+    private int measured;
+    private int refineCenter;
+
+    private long searchStartNanos = -1;
+    private long windowStartNanos;
+    private final long[] windowTimes = new long[WINDOW_CAPACITY];
+    private final float[] windowLevels = new float[WINDOW_CAPACITY];
+    private int n;
+    private double saturationSum;
+
+    IlluminationController(int initialHue, int initialBrightness) {
+        reset(initialHue, initialBrightness);
+    }
+
+    /** Yeni bir arama başlatır. */
+    public void reset(int hue, int brightness) {
+        this.hue = wrapHue(hue);
+        this.brightness = clampBrightness(brightness);
+        searchBrightness = this.brightness;
+        bestScore = Double.NaN;
+        measured = 0;
+        Arrays.fill(frequencyResidual, 0);
+        budgetExhausted = false;
+        searchStartNanos = -1;
+        phase = Phase.SEARCHING;
+        if (brightnessEnabled) {
+            step = Step.CEILING;
+            ceilingLow = -1;
+            ceilingHigh = MAX_BRIGHTNESS + 1;
+        } else {
+            step = Step.COARSE;
+        }
+        clearWindow();
+    }
+
+    /** Sistem parlaklığı yazılamıyorsa (izin yok) yalnızca renk tonu aranır; bir sonraki aramada etkinleşir. */
+    public void setBrightnessEnabled(boolean enabled) {
+        this.brightnessEnabled = enabled;
+    }
+
+    /** Kayıt boyunca ayarı sabitler. */
+    public void lock() {
+        phase = Phase.LOCKED;
+    }
+
+    /** Kilidi kaldırır ve mevcut ayardan yeniden arar. */
+    public void unlock() {
+        if (phase == Phase.LOCKED) reset(hue, brightness);
+    }
+
+    /**
+     * Parmak algılanan her kare için çağrılır.
+     *
+     * @param roiMean    ROI içindeki V düzlemi ortalaması
+     * @param histogram  aynı ROI'nin V düzlemi histogramı ({@link #HISTOGRAM_BINS} kova)
+     * @param pixelCount histogramdaki toplam piksel sayısı
+     * @return çıkış (hue/parlaklık) değiştiyse true
+     */
+    public boolean onFrame(long timestampNanos, float roiMean, int[] histogram, int pixelCount) {
+        if ((phase != Phase.SEARCHING && phase != Phase.REFINING) || pixelCount <= 0) return false;
+        if (searchStartNanos < 0) {
+            searchStartNanos = timestampNanos;
+            windowStartNanos = timestampNanos;
+        }
+        if (timestampNanos - searchStartNanos >= SEARCH_BUDGET_NANOS) {
+            budgetExhausted = true;
+            return converge();
+        }
+        long inWindow = timestampNanos - windowStartNanos;
+        if (inWindow < SETTLE_NANOS) return false; // ekran ve pozlama yeni ayara otursun
+
+        double saturation = saturatedFraction(histogram, pixelCount, 0);
+
+        boolean changed;
+        if (step == Step.CEILING) {
+            changed = advanceCeiling(saturatedFraction(histogram, pixelCount, CEILING_MARGIN) > SATURATION_LIMIT);
+        } else if (saturation > SATURATION_LIMIT && brightnessEnabled && brightness > 0) {
+            // Kırpılan nabız ölçülemez: bu adayı daha karanlık ölçmeye baştan başla
+            changed = setOutput(hue, brightness - SATURATION_BACKOFF);
+        } else {
+            if (n < WINDOW_CAPACITY) {
+                windowTimes[n] = inWindow;
+                windowLevels[n] = roiMean;
+                saturationSum += saturation;
+                n++;
+            }
+            if (inWindow < SETTLE_NANOS + measureNanos()) return false;
+            measureWindow();
+            if (brightnessEnabled && peakSaturation(histogram, pixelCount, roiMean) > SATURATION_LIMIT) {
+                // Pencere kırpılmadı, yalnızca nabız tepesine denk gelmedi: AC/DC ölçümü geçerli,
+                // adayın çalışma noktası daha karanlık kaydedilir
+                candidateBrightness[measured - 1] = clampBrightness(brightness - SATURATION_BACKOFF);
+            }
+            changed = advance();
+        }
+        // Ayar değişmediyse (ör. tavan mevcut parlaklık çıktı) yeniden oturmayı beklemeye gerek yok
+        windowStartNanos = changed ? timestampNanos : timestampNanos - SETTLE_NANOS;
+        clearWindow();
+        return changed;
+    }
+
+    /** Parlaklık tavanı için bir ikili arama adımı; {@code saturated} pay ile ölçülmüştür. */
+    private boolean advanceCeiling(boolean saturated) {
+        if (saturated) {
+            ceilingHigh = brightness;
+        } else {
+            ceilingLow = brightness;
+        }
+        if (ceilingHigh - Math.max(ceilingLow, 0) > CEILING_TOLERANCE) {
+            // İlk doymamış adımda doğrudan en yükseği dene
+            int next = ceilingHigh > MAX_BRIGHTNESS ? MAX_BRIGHTNESS : (Math.max(ceilingLow, 0) + ceilingHigh) / 2;
+            if (next != brightness) return setOutput(hue, next);
+        }
+        step = Step.COARSE;
+        searchBrightness = Math.max(ceilingLow, 0);
+        return setOutput(hue, searchBrightness);
+    }
+
+    /**
+     * Pencereye her aday frekansta sabit + sinüs uydurur. Nabız frekansı tüm pencerelerde ortaktır
+     * (evre ve genlik her pencerede serbest), bu yüzden artık kareler toplamı frekans başına biriktirilir.
+     */
+    private void measureWindow() {
+        int i = measured++;
+        candidateHue[i] = hue;
+        candidateBrightness[i] = brightness;
+        double sum = 0;
+        for (int k = 0; k < n; k++) sum += windowLevels[k];
+        double mean = sum / n;
+        candidateMean[i] = mean;
+        candidateSaturation[i] = saturationSum / n;
+        boolean saturated = candidateSaturation[i] > SATURATION_LIMIT;
+
+        for (int f = 0; f < FREQUENCY_COUNT; f++) {
+            double omega = 2 * Math.PI * (MIN_PULSE_HZ + f * PULSE_HZ_STEP) / 1e9;
+            // Normal denklemler: y = m + a cos + b sin (y ortalamadan arındırılmış)
+            double sc = 0, ss = 0, scc = 0, sss = 0, scs = 0, sy = 0, syc = 0, sys = 0, syy = 0;
+            for (int k = 0; k < n; k++) {
+                double theta = omega * windowTimes[k];
+                double c = Math.cos(theta);
+                double s = Math.sin(theta);
+                double y = windowLevels[k] - mean;
+                sc += c;
+                ss += s;
+                scc += c * c;
+                sss += s * s;
+                scs += c * s;
+                sy += y;
+                syc += y * c;
+                sys += y * s;
+                syy += y * y;
+            }
+            double[] p = solve3(n, sc, ss, scc, scs, sss, sy, syc, sys);
+            if (p == null) {
+                candidateAmplitude[i][f] = 0;
+                continue;
+            }
+            candidateAmplitude[i][f] = Math.hypot(p[1], p[2]);
+            if (!saturated) frequencyResidual[f] += syy - (p[0] * sy + p[1] * syc + p[2] * sys);
+        }
+    }
+
+    /**
+     * Son karenin histogramını, uydurulan nabız tepesine göre kaydırarak tepe anındaki doymuş piksel
+     * oranını öngörür.
+     */
+    private double peakSaturation(int[] histogram, int pixelCount, float roiMean) {
+        int i = measured - 1;
+        double peak = candidateMean[i] + candidateAmplitude[i][pulseFrequency()];
+        return saturatedFraction(histogram, pixelCount, (int) Math.ceil(Math.max(0, peak - roiMean)));
+    }
+
+    /** {@code margin} kadar aşağıdan başlayarak doymuş sayılan piksellerin oranı. */
+    private static double saturatedFraction(int[] histogram, int pixelCount, int margin) {
+        int saturated = 0;
+        for (int v = Math.max(0, SATURATION_LEVEL - margin); v < HISTOGRAM_BINS; v++) saturated += histogram[v];
+        return (double) saturated / pixelCount;
+    }
+
+    /** Simetrik 3x3 sistemi Cramer kuralıyla çözer; tekilse null. */
+    private static double[] solve3(double a00, double a01, double a02, double a11, double a12, double a22,
+                                   double b0, double b1, double b2) {
+        double c00 = a11 * a22 - a12 * a12;
+        double c01 = a02 * a12 - a01 * a22;
+        double c02 = a01 * a12 - a02 * a11;
+        double det = a00 * c00 + a01 * c01 + a02 * c02;
+        if (Math.abs(det) < 1e-9) return null;
+        double c11 = a00 * a22 - a02 * a02;
+        double c12 = a01 * a02 - a00 * a12;
+        double c22 = a00 * a11 - a01 * a01;
+        return new double[]{
+                (c00 * b0 + c01 * b1 + c02 * b2) / det,
+                (c01 * b0 + c11 * b1 + c12 * b2) / det,
+                (c02 * b0 + c12 * b1 + c22 * b2) / det
+        };
+    }
+
+    private long measureNanos() {
+        // Nabız görünmeyen pencerelerde artık frekansla pek değişmez; kestirim henüz anlamsızdır
+        double minResidual = Double.MAX_VALUE;
+        double maxResidual = 0;
+        for (double residual : frequencyResidual) {
+            minResidual = Math.min(minResidual, residual);
+            maxResidual = Math.max(maxResidual, residual);
+        }
+        if (minResidual > FREQUENCY_CONFIDENCE * maxResidual) return MIN_MEASURE_NANOS;
+        double window = WINDOW_PERIODS * 1e9 / (MIN_PULSE_HZ + pulseFrequency() * PULSE_HZ_STEP);
+        return Math.max(MIN_MEASURE_NANOS, Math.min(MAX_MEASURE_NANOS, (long) window));
+    }
+
+    /** Tüm pencerelerde artığı en küçük olan nabız frekansının indeksi. */
+    private int pulseFrequency() {
+        int best = 0;
+        for (int f = 1; f < FREQUENCY_COUNT; f++) {
+            if (frequencyResidual[f] < frequencyResidual[best]) best = f;
+        }
+        return best;
+    }
+
+    /** Nabız genliği / taban (AC/DC); doymuş adaylarda doyma oranının negatifi. */
+    private double score(int i, int frequency) {
+        if (candidateSaturation[i] > SATURATION_LIMIT) return -candidateSaturation[i];
+        if (candidateMean[i] <= 0) return 0;
+        return candidateAmplitude[i][frequency] / candidateMean[i];
+    }
+
+    /** Gürültü payını aşmayan farklarda {@code preferred} adayı korunur. */
+    private int bestCandidate(int preferred) {
+        int frequency = pulseFrequency();
+        int best = preferred;
+        double bestValue = score(preferred, frequency);
+        for (int i = 0; i < measured; i++) {
+            double value = score(i, frequency);
+            if (value > bestValue * (1 + TIE_TOLERANCE) || (bestValue <= 0 && value > bestValue)) {
+                best = i;
+                bestValue = value;
+            }
+        }
+        bestScore = bestValue;
+        return best;
+    }
+
+    /** Ölçülen adaydan sonra bir sonrakini seçer. */
+    private boolean advance() {
+        if (step == Step.COARSE) {
+            if (measured < COARSE_COUNT) {
+                return setOutput(hue + COARSE_STEP, searchBrightness);
+            }
+            refineCenter = bestCandidate(0);
+            if (bestScore <= 0) {
+                // Hiçbir tonda nabız görünmüyor: inceltmenin yönü yok
+                return converge();
+            }
+            step = Step.REFINE;
+            phase = Phase.REFINING;
+            return setOutput(candidateHue[refineCenter] - REFINE_STEP, candidateBrightness[refineCenter]);
+        }
+        if (measured == COARSE_COUNT + 1) {
+            return setOutput(candidateHue[refineCenter] + REFINE_STEP, candidateBrightness[refineCenter]);
+        }
+        return converge();
+    }
+
+    private boolean converge() {
+        phase = Phase.CONVERGED;
+        if (measured == 0) return false;
+        int best = bestCandidate(step == Step.REFINE ? refineCenter : 0);
+        return setOutput(candidateHue[best], candidateBrightness[best]);
+    }
+
+    private boolean setOutput(int hue, int brightness) {
+        hue = wrapHue(hue);
+        brightness = clampBrightness(brightness);
+        boolean changed = this.hue != hue || this.brightness != brightness;
+        this.hue = hue;
+        this.brightness = brightness;
+        return changed;
+    }
+
+    private void clearWindow() {
+        n = 0;
+        saturationSum = 0;
+    }
+
+    private static int wrapHue(int hue) {
+        return ((hue % 360) + 360) % 360;
+    }
+
+    private static int clampBrightness(int brightness) {
+        return Math.max(0, Math.min(MAX_BRIGHTNESS, brightness));
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /** Büyük adımlı arama sürüyorsa true; bu sürede ışık her an belirgin biçimde değişebilir. */
+    public boolean isSearching() {
+        return phase == Phase.SEARCHING;
+    }
+
+    /** Arama, adayları bitirmeden süre sınırına ulaşıp durduysa true. */
+    public boolean isBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    public int getHue() {
+        return hue;
+    }
+
+    public int getBrightness() {
+        return brightness;
+    }
+
+    /** Seçilen adayın AC/DC puanı; doymuş ayarlarda negatiftir. */
+    public double getBestScore() {
+        return bestScore;
+    }
+}
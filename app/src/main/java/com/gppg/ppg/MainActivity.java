@@ -23,7 +23,6 @@ import android.graphics.Color;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.CountDownTimer;
 import android.os.Environment;
 import android.provider.Settings;
 import android.text.Editable;
@@ -54,6 +53,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -150,23 +150,76 @@ public class MainActivity extends AppCompatActivity {
     private TextView instructionsTextView;
     private EditText bloodSugarEditText;
     private SwitchMaterial recordingMethodSwitch; // *** MODIFICATION: إضافة متغير لمفتاح التبديل
+    private TextView metricsOverlayText;
+    private SwitchMaterial continuousModeSwitch;
+    private SwitchMaterial autoIlluminationSwitch;
+    private SwitchMaterial streamingSwitch;
+    private Button stopMonitoringButton;
 
     // Kamera ve analiz değişkenleri
     private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+    private ProcessCameraProvider cameraProvider;
+    private final AnalysisResolutionController resolutionController = new AnalysisResolutionController();
+    private AnalysisResolutionController.Level boundLevel;
     private ExecutorService cameraExecutor;
     private LowPassFilter filter;
     private MovingAverageFilter maFilter;
     private HighPassFilter hpFilter;
     private Toast statusToast = null;
 
-    // Kayıt süreci değişkenleri
-    private CountDownTimer stabilizationTimer;
-    private CountDownTimer recordingTimer;
+    // Performans ölçümleri
+    private final PpgMetrics metrics = new PpgMetrics();
+    private final Runnable metricsOverlayUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (metricsOverlayText.getVisibility() != View.VISIBLE) return;
+            metricsOverlayText.setText(metrics.toOverlayText());
+            metricsOverlayText.postDelayed(this, METRICS_OVERLAY_REFRESH_MS);
+        }
+    };
+
+    // Kayıt süreci değişkenleri (durum makinesi analiz iş parçacığında çalışır)
+    private CaptureStateMachine captureStateMachine;
+    private volatile long lastStabilizationMs;
+    // Kayda girerken sabitlenen analiz kademesi; kayıttan sonra kademe değişse de dosyaya bu yazılır
+    private volatile AnalysisResolutionController.Level recordingLevel;
     private List<Float> recordedPpgData;
+    private float chartXIndex = 0;
+
+    // Vuru topluluğu şablonu ve solunum hızı kayıt örnekleriyle analiz iş parçacığında güncellenir
+    private final RespirationEstimator respirationEstimator = new RespirationEstimator();
+    private final BeatEnsemble beatEnsemble = new BeatEnsemble(respirationEstimator);
+    private volatile String beatTemplateCsv = "";
+    private volatile String respirationCsv = "";
+    // Yüksek geçiren filtreden önceki ROI düzeyi (RIIV için); analiz iş parçacığında yazılır
+    private float baselineLevel;
+
+    // Sürekli izleme modu: örnekler bellekte değil, parça parça diskte tutulur
+    private boolean continuousMode = false;
+    private volatile SegmentedRecorder segmentedRecorder;
+
+    // Otomatik aydınlatma: ekran rengi/parlaklığı analiz iş parçacığında kapalı döngüyle ayarlanır
+    private IlluminationController illuminationController;
+    private volatile boolean autoIlluminationEnabled = true;
+    private final int[] vHistogram = new int[IlluminationController.HISTOGRAM_BINS];
+
+    // Canlı yayın (isteğe bağlı): yayıncı analiz iş parçacığında beslenir, gönderim kendi iş parçacığında
+    private volatile PpgStreamServer streamServer;
+    // Açma/kapama tek iş parçacığında sırayla yürür; bağlanmadan önce gelen kapatma isteği kaybolmaz
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor();
+    private long lastFrameTimestampNanos;
+    private long lastStreamMetricsNanos = -1;
 
     private static final int CAMERA_PERMISSION_REQUEST_CODE = 101;
     private static final int STORAGE_PERMISSION_REQUEST_CODE = 102;
     private static final String FOLDER_NAME = "PPG_Signals";
+    private static final long METRICS_OVERLAY_REFRESH_MS = 500;
+    private static final long STABILIZATION_NANOS = 10_000_000_000L; // üst sınır; durağanlıkta erken biter
+    private static final long RECORDING_NANOS = 30_000_000_000L;
+    private static final int CONTINUOUS_SEGMENT_FRAMES = 1800; // ~60 sn @ 30 fps, bölge sayısından bağımsız
+    private static final long SEGMENT_CLOSE_TIMEOUT_MS = 10000;
+    private static final int CHART_MAX_ENTRIES = 1000;
+    private static final long STREAM_METRICS_INTERVAL_NANOS = 1_000_000_000L;
 
 
     @Override
@@ -177,15 +230,19 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         bindViews();
+        cameraExecutor = Executors.newSingleThreadExecutor();
         filter = new LowPassFilter();
         maFilter = new MovingAverageFilter(4);
         hpFilter = new HighPassFilter();
         recordedPpgData = new ArrayList<>();
+        captureStateMachine = new CaptureStateMachine(STABILIZATION_NANOS, new StabilizationDetector(),
+                createCaptureListener());
+
+        illuminationController = new IlluminationController(hueSeekBar.getProgress(), brightnessSeekBar.getProgress());
 
         setupListeners();
         checkSystemWritePermission();
         setupChart();
-        cameraExecutor = Executors.newSingleThreadExecutor();
         checkCameraPermissionAndStartCamera();
 
         resetToIdleState();
@@ -204,6 +261,11 @@ public class MainActivity extends AppCompatActivity {
         instructionsTextView = findViewById(R.id.instructionsTextView);
         bloodSugarEditText = findViewById(R.id.bloodSugarEditText);
         recordingMethodSwitch = findViewById(R.id.recordingMethodSwitch); // *** MODIFICATION: ربط مفتاح التبديل
+        metricsOverlayText = findViewById(R.id.metricsOverlayText);
+        continuousModeSwitch = findViewById(R.id.continuousModeSwitch);
+        autoIlluminationSwitch = findViewById(R.id.autoIlluminationSwitch);
+        streamingSwitch = findViewById(R.id.streamingSwitch);
+        stopMonitoringButton = findViewById(R.id.stopMonitoringButton);
     }
 
     private void setupListeners() {
@@ -218,14 +280,49 @@ public class MainActivity extends AppCompatActivity {
             @Override public void onStopTrackingTouch(SeekBar seekBar) {}
         });
 
+        // Renk çubuğuna uzun basınca performans katmanı açılır/kapanır
+        colorView.setOnLongClickListener(v -> {
+            if (metricsOverlayText.getVisibility() == View.VISIBLE) {
+                metricsOverlayText.removeCallbacks(metricsOverlayUpdater);
+                metricsOverlayText.setVisibility(View.GONE);
+            } else {
+                metricsOverlayText.setVisibility(View.VISIBLE);
+                metricsOverlayUpdater.run();
+            }
+            return true;
+        });
+
         newRecordButton.setOnClickListener(v -> {
+            if (continuousMode && !startContinuousSession()) return;
+            metrics.reset();
             currentState = AppState.WAITING_FOR_FINGER;
             updateUiForState();
             resetMeasurementProcess();
+            final long recordingNanos = continuousMode ? 0 : RECORDING_NANOS;
+            final int hue = hueSeekBar.getProgress();
+            final int brightness = brightnessSeekBar.getProgress();
+            cameraExecutor.execute(() -> {
+                illuminationController.reset(hue, brightness);
+                captureStateMachine.start(recordingNanos);
+            });
         });
 
         saveButton.setOnClickListener(v -> checkAndRequestStoragePermission());
 
+        continuousModeSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> continuousMode = isChecked);
+
+        autoIlluminationSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> autoIlluminationEnabled = isChecked);
+
+        streamingSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                startStreaming();
+            } else {
+                stopStreaming();
+            }
+        });
+
+        stopMonitoringButton.setOnClickListener(v -> stopContinuousSession());
+
         bloodSugarEditText.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
@@ -261,6 +358,9 @@ public class MainActivity extends AppCompatActivity {
                 case IDLE:
                     newRecordButton.setVisibility(View.VISIBLE);
                     recordingMethodSwitch.setVisibility(View.VISIBLE); // [تعديل] تغيير setEnabled إلى setVisibility
+                    continuousModeSwitch.setVisibility(View.VISIBLE);
+                    autoIlluminationSwitch.setVisibility(View.VISIBLE);
+                    streamingSwitch.setVisibility(View.VISIBLE);
                     recordingLayout.setVisibility(View.GONE);
                     // تم نقل setEnabled(true) إلى مكان آخر لأنه لا حاجة له هنا طالما أن العنصر ظاهر
                     break;
@@ -269,15 +369,26 @@ public class MainActivity extends AppCompatActivity {
                 case RECORDING:
                     newRecordButton.setVisibility(View.GONE);
                     recordingMethodSwitch.setVisibility(View.GONE); // [تعديل] إخفاء المفتاح بدلاً من تعطيله
+                    continuousModeSwitch.setVisibility(View.GONE);
+                    autoIlluminationSwitch.setVisibility(View.GONE);
+                    streamingSwitch.setVisibility(View.GONE);
                     recordingLayout.setVisibility(View.VISIBLE);
                     bloodSugarEditText.setEnabled(false);
                     saveButton.setEnabled(false);
+                    // Sürekli izlemede kaydet yerine durdur düğmesi gösterilir
+                    saveButton.setVisibility(continuousMode ? View.INVISIBLE : View.VISIBLE);
+                    stopMonitoringButton.setVisibility(continuousMode ? View.VISIBLE : View.GONE);
                     // لا داعي لـ setEnabled(false) للمفتاح طالما أنه مخفي
                     break;
                 case WAITING_FOR_INPUT:
                     newRecordButton.setVisibility(View.GONE);
                     recordingMethodSwitch.setVisibility(View.GONE); // [تعديل] إخفاء المفتاح بدلاً من تعطيله
+                    continuousModeSwitch.setVisibility(View.GONE);
+                    autoIlluminationSwitch.setVisibility(View.GONE);
+                    streamingSwitch.setVisibility(View.GONE);
                     recordingLayout.setVisibility(View.VISIBLE);
+                    saveButton.setVisibility(View.VISIBLE);
+                    stopMonitoringButton.setVisibility(View.GONE);
                     bloodSugarEditText.setEnabled(true);
                     saveButton.setEnabled(bloodSugarEditText.getText().length() > 0);
                     // لا داعي لـ setEnabled(false) للمفتاح طالما أنه مخفي
@@ -287,10 +398,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void resetMeasurementProcess() {
-        if (stabilizationTimer != null) stabilizationTimer.cancel();
-        if (recordingTimer != null) recordingTimer.cancel();
-
         recordedPpgData.clear();
+        chartXIndex = 0;
         if (realtimeChart.getData() != null) {
             realtimeChart.getData().clearValues();
             realtimeChart.notifyDataSetChanged();
@@ -308,42 +417,133 @@ public class MainActivity extends AppCompatActivity {
 
     private void resetToIdleState() {
         currentState = AppState.IDLE;
+        cameraExecutor.execute(() -> captureStateMachine.reset());
         resetMeasurementProcess();
         updateUiForState();
         instructionsTextView.setText("Yeni bir kayıt başlatmak için basın");
     }
 
-    private void startStabilizationTimer() {
-        currentState = AppState.STABILIZING;
-        stabilizationTimer = new CountDownTimer(10000, 1000) {
+    /** Durum makinesi olayları analiz iş parçacığında gelir; UI yalnızca sonuçları gözlemler. */
+    private CaptureStateMachine.Listener createCaptureListener() {
+        return new CaptureStateMachine.Listener() {
             @Override
-            public void onTick(long millisUntilFinished) {
-                instructionsTextView.setText("Sinyal iyi! Sabit tutun... " + (millisUntilFinished / 1000));
+            public void onStateChanged(CaptureStateMachine.State previous, CaptureStateMachine.State current) {
+                // Sürekli izlemede bölge sayısı oturum boyunca sabit kalmalı (örnek dosyası kanal düzeni)
+                resolutionController.setFrozen(current == CaptureStateMachine.State.RECORDING
+                        || segmentedRecorder != null);
+                // Kayıt boyunca ışık sabit kalır; sinyal kaybından sonra yeniden aranır
+                if (current == CaptureStateMachine.State.RECORDING) {
+                    illuminationController.lock();
+                    recordingLevel = resolutionController.getCurrentLevel();
+                }
+                if (previous == CaptureStateMachine.State.STABILIZING && current == CaptureStateMachine.State.RECORDING) {
+                    lastStabilizationMs = captureStateMachine.getLastStabilizationNanos() / 1_000_000L;
+                    long savedMs = captureStateMachine.getStabilizationBudgetNanos() / 1_000_000L - lastStabilizationMs;
+                    Log.d("Capture", "Dengelenme " + lastStabilizationMs + " ms sürdü, kazanılan süre: " + savedMs + " ms");
+                }
+                boolean signalLost = current == CaptureStateMachine.State.WAITING_FOR_FINGER
+                        && (previous == CaptureStateMachine.State.STABILIZING
+                        || previous == CaptureStateMachine.State.RECORDING);
+                // Sürekli izlemede oturum açık kalır; kesinti parça sınırı olarak işaretlenir
+                if (signalLost) illuminationController.unlock();
+                // Süreli kayıt sinyal kaybında baştan başlar: şablon ve solunum serileri atılan denemenin
+                // verisini taşımamalı. Sürekli izlemede oturum sürer, yalnızca diziler kesilir.
+                boolean restarted = (previous == CaptureStateMachine.State.IDLE
+                        && current == CaptureStateMachine.State.WAITING_FOR_FINGER)
+                        || (signalLost && segmentedRecorder == null);
+                if (restarted) {
+                    beatEnsemble.reset();
+                    respirationEstimator.reset();
+                } else if (signalLost) {
+                    beatEnsemble.breakSequence();
+                    respirationEstimator.breakSequence();
+                }
+                PpgStreamServer server = streamServer;
+                if (server != null) server.publishState(lastFrameTimestampNanos, previous, current);
+                SegmentedRecorder recorder = segmentedRecorder;
+                if (signalLost && recorder != null) recorder.breakSegment();
+                runOnUiThread(() -> onCaptureStateChanged(current, signalLost));
             }
+
             @Override
-            public void onFinish() {
-                startRecordingTimer();
+            public void onTick(CaptureStateMachine.State state, long elapsedMillis, long totalMillis) {
+                runOnUiThread(() -> showCaptureProgress(state, elapsedMillis, totalMillis));
             }
-        }.start();
-    }
 
-    private void startRecordingTimer() {
-        currentState = AppState.RECORDING;
-        recordedPpgData.clear();
-
-        recordingTimer = new CountDownTimer(30000, 1000) {
             @Override
-            public void onTick(long millisUntilFinished) {
-                instructionsTextView.setText("Kayıt yapılıyor... " + (millisUntilFinished / 1000));
+            public void onRecordingSamples(long timestampNanos, float[] samples) {
+                respirationEstimator.onBaseline(timestampNanos, baselineLevel);
+                beatEnsemble.onFrame(timestampNanos, samples);
+                SegmentedRecorder recorder = segmentedRecorder;
+                if (recorder != null) recorder.append(timestampNanos, samples);
             }
+
             @Override
-            public void onFinish() {
-                currentState = AppState.WAITING_FOR_INPUT;
-                instructionsTextView.setText("Kayıt tamamlandı. Kan şekeri değerini girin ve kaydet'e basın.");
-                updateUiForState();
-                Toast.makeText(MainActivity.this, "30 saniyelik veri başarıyla kaydedildi", Toast.LENGTH_SHORT).show();
+            public void onRecordingComplete(float[] samples) {
+                beatTemplateCsv = beatEnsemble.toCsv();
+                Log.d("Capture", "Vuru şablonu: " + beatEnsemble.getAcceptedBeats() + " kabul, "
+                        + beatEnsemble.getRejectedBeats() + " red");
+                respirationCsv = respirationEstimator.toCsv();
+                Log.d("Capture", "Solunum hızı: " + respirationEstimator.getRespirationRate() + " /dk");
+                runOnUiThread(() -> onRecordingFinished(samples));
             }
-        }.start();
+        };
+    }
+
+    private void onCaptureStateChanged(CaptureStateMachine.State state, boolean signalLost) {
+        // Sıfırlamadan önce kuyruğa girmiş eski olaylar yok sayılır
+        if (currentState == AppState.IDLE || currentState == AppState.WAITING_FOR_INPUT) return;
+
+        switch (state) {
+            case WAITING_FOR_FINGER:
+                currentState = AppState.WAITING_FOR_FINGER;
+                if (signalLost) {
+                    Toast.makeText(this, "Sinyal kesildi! İşlem yeniden başlatılıyor.", Toast.LENGTH_SHORT).show();
+                    resetMeasurementProcess();
+                }
+                break;
+            case STABILIZING:
+                currentState = AppState.STABILIZING;
+                break;
+            case RECORDING:
+                currentState = AppState.RECORDING;
+                recordedPpgData.clear();
+                break;
+            default:
+                return;
+        }
+        updateUiForState();
+    }
+
+    private void showCaptureProgress(CaptureStateMachine.State state, long elapsedMillis, long totalMillis) {
+        if (currentState == AppState.IDLE || currentState == AppState.WAITING_FOR_INPUT) return;
+
+        long remainingSeconds = (totalMillis - elapsedMillis + 999) / 1000;
+        if (state == CaptureStateMachine.State.STABILIZING) {
+            instructionsTextView.setText("Sinyal iyi! Sabit tutun... " + remainingSeconds);
+        } else if (state == CaptureStateMachine.State.RECORDING) {
+            if (totalMillis > 0) {
+                instructionsTextView.setText("Kayıt yapılıyor... " + remainingSeconds);
+            } else {
+                long elapsedSeconds = elapsedMillis / 1000;
+                instructionsTextView.setText(String.format(Locale.getDefault(), "Sürekli izleme sürüyor... %02d:%02d:%02d",
+                        elapsedSeconds / 3600, (elapsedSeconds / 60) % 60, elapsedSeconds % 60));
+            }
+        }
+    }
+
+    private void onRecordingFinished(float[] samples) {
+        if (currentState != AppState.RECORDING) return;
+
+        recordedPpgData.clear();
+        for (float value : samples) {
+            recordedPpgData.add(value);
+        }
+        Log.d("Capture", "Kayıt tamamlandı: " + samples.length + " örnek");
+        currentState = AppState.WAITING_FOR_INPUT;
+        instructionsTextView.setText("Kayıt tamamlandı. Kan şekeri değerini girin ve kaydet'e basın.");
+        updateUiForState();
+        Toast.makeText(MainActivity.this, "30 saniyelik veri başarıyla kaydedildi", Toast.LENGTH_SHORT).show();
     }
 
     @SuppressLint("UnsafeOptInUsageError")
@@ -353,8 +553,10 @@ public class MainActivity extends AppCompatActivity {
         Preview preview = new Preview.Builder().build();
         preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
+        // Çözünürlük sabit değil; kademe AnalysisResolutionController tarafından seçilir
+        boundLevel = resolutionController.getCurrentLevel();
         ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                .setTargetResolution(new Size(120, 160))
+                .setTargetResolution(new Size(boundLevel.width, boundLevel.height))
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
 
@@ -362,12 +564,22 @@ public class MainActivity extends AppCompatActivity {
         final float MIN_LUMINANCE_AVG = 10f;
 
         imageAnalysis.setAnalyzer(cameraExecutor, image -> {
+            long stageStart = System.nanoTime();
+            final long frameStart = stageStart;
+            final long frameTimestamp = image.getImageInfo().getTimestamp();
+            metrics.onFrame(frameTimestamp);
+            AnalysisResolutionController.Level level = resolutionController.getCurrentLevel();
+            int step = level.decimation;
+
             ImageProxy.PlaneProxy yPlane = image.getPlanes()[0];
             ImageProxy.PlaneProxy vPlane = image.getPlanes()[2];
             float avgLuminance = calculateAverage(yPlane.getBuffer());
             float avgRed = calculateAverage(vPlane.getBuffer());
 
             boolean isFingerDetected = (avgRed > MIN_RED_AVG && avgLuminance > MIN_LUMINANCE_AVG);
+            long now = System.nanoTime();
+            metrics.record(PpgMetrics.Stage.GATING, now - stageStart);
+            stageStart = now;
 
             if (isFingerDetected) {
                 // *** START OF MODIFICATION ***
@@ -392,24 +604,32 @@ public class MainActivity extends AppCompatActivity {
 
                     long sum = 0;
                     int count = 0;
+                    Arrays.fill(vHistogram, 0);
 
-                    for (int y = startY; y < endY; y++) {
-                        for (int x = startX; x < endX; x++) {
+                    for (int y = startY; y < endY; y += step) {
+                        for (int x = startX; x < endX; x += step) {
                             int pos = y * rowStride + x * pixelStride;
                             if (pos >= buffer.limit()) continue;
-                            sum += buffer.get(pos) & 0xFF;
+                            int pixelValue = buffer.get(pos) & 0xFF;
+                            sum += pixelValue;
+                            vHistogram[pixelValue]++;
                             count++;
                         }
                     }
 
                     float average = (count > 0) ? (float) -sum / count : 0;
                     final float[] dataToSend = new float[]{average};
+                    baselineLevel = average;
+                    metrics.record(PpgMetrics.Stage.ROI, System.nanoTime() - stageStart);
+                    updateIllumination(frameTimestamp, count > 0 ? (float) sum / count : 0, count);
 
                     // بما أنه لا يوجد فلاتر، نعتبر الإشارة جيدة طالما الإصبع موجود
-                    runOnUiThread(() -> handleSignalState(true, dataToSend));
+                    postSignalState(frameTimestamp, true, dataToSend);
 
                 } else {
                     // --- الطريقة الأصلية: 4 مناطق مفلترة ---
+                    // Bölge sayısı analiz kademesinden gelir (varsayılan 4)
+                    int zoneCount = level.zoneCount;
                     ByteBuffer buffer = vPlane.getBuffer();
                     int rowStride = vPlane.getRowStride();
                     int pixelStride = vPlane.getPixelStride();
@@ -422,32 +642,44 @@ public class MainActivity extends AppCompatActivity {
                     int startY = cropMarginY;
                     int endY = planeHeight - cropMarginY;
                     int centralRegionHeight = endY - startY;
-                    if (centralRegionHeight < 4) {
+                    if (centralRegionHeight < zoneCount) {
                         image.close();
                         return;
                     }
-                    int sliceHeight = centralRegionHeight / 4;
-                    long[] sums = new long[4];
-                    int[] counts = new int[4];
-
-                    for (int y = startY; y < endY; y++) {
-                        for (int x = startX; x < endX; x++) {
-                            int sliceIndex = 3 - ((y - startY) / sliceHeight);
-                            sliceIndex = Math.max(0, Math.min(3, sliceIndex));
+                    int sliceHeight = centralRegionHeight / zoneCount;
+                    long[] sums = new long[zoneCount];
+                    int[] counts = new int[zoneCount];
+                    Arrays.fill(vHistogram, 0);
+
+                    for (int y = startY; y < endY; y += step) {
+                        for (int x = startX; x < endX; x += step) {
+                            int sliceIndex = zoneCount - 1 - ((y - startY) / sliceHeight);
+                            sliceIndex = Math.max(0, Math.min(zoneCount - 1, sliceIndex));
                             int pos = y * rowStride + x * pixelStride;
                             if (pos >= buffer.limit()) continue;
                             int pixelValue = buffer.get(pos) & 0xFF;
                             sums[sliceIndex] += pixelValue;
                             counts[sliceIndex]++;
+                            vHistogram[pixelValue]++;
                         }
                     }
-                    final float[] averages = new float[4];
-                    for (int i = 0; i < 4; i++) {
+                    long totalSum = 0;
+                    int totalCount = 0;
+                    for (int i = 0; i < zoneCount; i++) {
+                        totalSum += sums[i];
+                        totalCount += counts[i];
+                    }
+                    final float[] averages = new float[zoneCount];
+                    for (int i = 0; i < zoneCount; i++) {
                         averages[i] = (counts[i] > 0) ? (float) -sums[i] / counts[i] : 0;
                     }
-                    final float[] filteredAverages = new float[4];
+                    baselineLevel = (totalCount > 0) ? (float) -totalSum / totalCount : 0;
+                    metrics.record(PpgMetrics.Stage.ROI, System.nanoTime() - stageStart);
+                    updateIllumination(frameTimestamp, totalCount > 0 ? (float) totalSum / totalCount : 0, totalCount);
+                    stageStart = System.nanoTime();
+                    final float[] filteredAverages = new float[zoneCount];
                     boolean isSignalGood = true;
-                    for (int i = 0; i < 4; i++) {
+                    for (int i = 0; i < zoneCount; i++) {
                         float lowPassed = filter.apply(averages[i]);
                         float maPassed = maFilter.apply(lowPassed);
                         float finalFiltered = hpFilter.apply(maPassed);
@@ -456,13 +688,17 @@ public class MainActivity extends AppCompatActivity {
                             isSignalGood = false;
                         }
                     }
-                    boolean finalIsSignalGood = isSignalGood;
-                    runOnUiThread(() -> handleSignalState(finalIsSignalGood, filteredAverages));
+                    metrics.record(PpgMetrics.Stage.FILTER, System.nanoTime() - stageStart);
+                    postSignalState(frameTimestamp, isSignalGood, filteredAverages);
                 }
                 // *** END OF MODIFICATION ***
 
             } else {
-                runOnUiThread(() -> handleSignalState(false, null));
+                postSignalState(frameTimestamp, false, null);
+            }
+
+            if (resolutionController.onFrame(System.nanoTime() - frameStart, metrics.getNominalFrameIntervalNanos())) {
+                onAnalysisLevelChanged();
             }
             image.close();
         });
@@ -473,6 +709,104 @@ public class MainActivity extends AppCompatActivity {
         cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageAnalysis);
     }
 
+    /** Seyreltme ve bölge sayısı bir sonraki karede etkinleşir; çözünürlük için yeniden bağlamak gerekir. */
+    private void onAnalysisLevelChanged() {
+        AnalysisResolutionController.Level level = resolutionController.getCurrentLevel();
+        Log.d("AnalysisLevel", "Yeni kademe: " + level + " (kullanım " + resolutionController.getUtilization() + ")");
+        runOnUiThread(() -> {
+            if (cameraProvider == null || boundLevel == null) return;
+            if (level.width != boundLevel.width || level.height != boundLevel.height) {
+                bindPreview(cameraProvider);
+            }
+        });
+    }
+
+    /** ROI ortalaması ve histogramı ile aydınlatma aramasını ilerletir; analiz iş parçacığında çağrılır. */
+    private void updateIllumination(long timestampNanos, float roiMean, int pixelCount) {
+        if (!autoIlluminationEnabled) return;
+        long start = System.nanoTime();
+        if (illuminationController.onFrame(timestampNanos, roiMean, vHistogram, pixelCount)) {
+            final int hue = illuminationController.getHue();
+            final int brightness = illuminationController.getBrightness();
+            runOnUiThread(() -> applyIllumination(hue, brightness));
+        }
+        metrics.record(PpgMetrics.Stage.LIGHT, System.nanoTime() - start);
+    }
+
+    private void applyIllumination(int hue, int brightness) {
+        if (currentState == AppState.WAITING_FOR_FINGER) {
+            instructionsTextView.setText("Işık ayarlanıyor, parmağınızı sabit tutun...");
+        }
+        hueSeekBar.setProgress(hue);
+        boolean canWrite = (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) || Settings.System.canWrite(this);
+        if (canWrite && brightnessSeekBar.isEnabled()) {
+            Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE, Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+            Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS, brightness);
+            brightnessSeekBar.setProgress(brightness);
+            updateBrightnessText(brightness);
+        }
+    }
+
+    /**
+     * Kareyi analiz iş parçacığında durum makinesine verir, ardından sonucu yalnızca gösterim için
+     * UI iş parçacığına aktarır ve geçiş süresini ölçer.
+     */
+    private void postSignalState(long timestampNanos, boolean isSignalGood, float[] data) {
+        lastFrameTimestampNanos = timestampNanos;
+        // Büyük adımlı ışık araması sürerken kareler dengelenmeye sayılmaz; küçük adımlı inceltme
+        // dengelenmeyle birlikte yürür, durağanlık ölçümü adımlarını kendi toleransıyla karşılar
+        boolean searching = autoIlluminationEnabled && illuminationController.isSearching();
+        long stageStart = System.nanoTime();
+        captureStateMachine.onFrame(timestampNanos, isSignalGood && !searching, data);
+        metrics.record(PpgMetrics.Stage.CAPTURE, System.nanoTime() - stageStart);
+        publishToStream(timestampNanos, isSignalGood, data);
+        final long postedAt = System.nanoTime();
+        runOnUiThread(() -> {
+            metrics.record(PpgMetrics.Stage.HANDOFF, System.nanoTime() - postedAt);
+            handleSignalState(isSignalGood, data);
+        });
+    }
+
+    /** Analiz iş parçacığında çağrılır; yayın kapalıysa veya istemci yoksa maliyeti yoktur. */
+    private void publishToStream(long timestampNanos, boolean isSignalGood, float[] data) {
+        PpgStreamServer server = streamServer;
+        if (server == null) return;
+        long start = System.nanoTime();
+        if (data != null) server.publishSamples(timestampNanos, isSignalGood, data);
+        if (lastStreamMetricsNanos < 0 || timestampNanos - lastStreamMetricsNanos >= STREAM_METRICS_INTERVAL_NANOS) {
+            lastStreamMetricsNanos = timestampNanos;
+            server.publishMetrics(timestampNanos, metrics);
+        }
+        metrics.record(PpgMetrics.Stage.STREAM, System.nanoTime() - start);
+    }
+
+    private void startStreaming() {
+        streamExecutor.execute(() -> {
+            if (streamServer != null) return;
+            try {
+                PpgStreamServer server = new PpgStreamServer(PpgStreamServer.DEFAULT_PORT);
+                streamServer = server;
+                runOnUiThread(() -> Toast.makeText(this,
+                        "Canlı yayın açık: adb forward tcp:" + server.getPort() + " tcp:" + server.getPort(),
+                        Toast.LENGTH_SHORT).show());
+            } catch (IOException e) {
+                Log.e("Stream", "Yayın sunucusu başlatılamadı", e);
+                runOnUiThread(() -> {
+                    Toast.makeText(this, "Yayın başlatılamadı: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    streamingSwitch.setChecked(false);
+                });
+            }
+        });
+    }
+
+    private void stopStreaming() {
+        streamExecutor.execute(() -> {
+            PpgStreamServer server = streamServer;
+            streamServer = null;
+            if (server != null) server.close();
+        });
+    }
+
     private void handleSignalState(boolean isSignalGood, float[] data) {
         if (currentState == AppState.IDLE || currentState == AppState.WAITING_FOR_INPUT) {
             return;
@@ -484,26 +818,76 @@ public class MainActivity extends AppCompatActivity {
 
             // الطريقة الجديدة سترسل قيمة واحدة، والطريقة القديمة 4 قيم
             // هذا الكود يتعامل مع كلتا الحالتين
+            long renderStart = System.nanoTime();
             for (float value : data) {
                 addChartEntry(value);
             }
-
-            if (currentState == AppState.WAITING_FOR_FINGER) {
-                startStabilizationTimer();
-            } else if (currentState == AppState.RECORDING) {
-                for (float value : data) {
-                    recordedPpgData.add(value);
-                }
-            }
+            metrics.record(PpgMetrics.Stage.RENDER, System.nanoTime() - renderStart);
         } else {
             realtimeChart.setVisibility(View.INVISIBLE);
             showStatusToast("Lütfen parmağınızın konumunu ayarlayın veya kamerayı tamamen kapatın");
+        }
+    }
 
-            if (currentState == AppState.STABILIZING || currentState == AppState.RECORDING) {
-                Toast.makeText(this, "Sinyal kesildi! İşlem yeniden başlatılıyor.", Toast.LENGTH_SHORT).show();
-                resetMeasurementProcess();
-            }
+    /** Sürekli izleme oturumu için parça yazıcısını açar; başarısızsa false döner. */
+    private boolean startContinuousSession() {
+        if (!hasStoragePermission()) {
+            Toast.makeText(this, "Sürekli izleme için dosya erişim izni gereklidir.", Toast.LENGTH_LONG).show();
+            requestStoragePermission();
+            return false;
         }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        File documentsFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
+        File sessionDir = new File(new File(documentsFolder, FOLDER_NAME), "PPG_Session_" + timeStamp);
+        AnalysisResolutionController.Level level = resolutionController.getCurrentLevel();
+        int channels = currentRecordingMethod == RecordingMethod.CENTER_BOX_RAW ? 1 : level.zoneCount;
+        try {
+            segmentedRecorder = new SegmentedRecorder(sessionDir, channels, CONTINUOUS_SEGMENT_FRAMES);
+        } catch (IOException e) {
+            Log.e("SaveFile", "Oturum klasörü açılamadı", e);
+            Toast.makeText(this, "Oturum başlatılamadı: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return false;
+        }
+        // Kanal sayısı kaydediciye sabitlendi; ilk durum geçişini beklemeden kademe dondurulur
+        cameraExecutor.execute(() -> resolutionController.setFrozen(true));
+        segmentedRecorder.writeSidecar("session_info.csv",
+                "recording_method\n" + currentRecordingMethod.name() + "\n"
+                        + "analysis_level\n" + level + "\n"
+                        + "channels\n" + channels + "\n"
+                        + "segment_frames\n" + CONTINUOUS_SEGMENT_FRAMES + "\n");
+        return true;
+    }
+
+    private void stopContinuousSession() {
+        resetToIdleState();
+        // Kaydedici analiz iş parçacığında beslendiği için orada ayrılır
+        cameraExecutor.execute(() -> {
+            final SegmentedRecorder recorder = segmentedRecorder;
+            segmentedRecorder = null;
+            // Donma yalnızca durum geçişinde güncellenir; oturum bitince burada açıkça kaldırılır
+            resolutionController.setFrozen(false);
+            if (recorder != null) closeContinuousSession(recorder);
+        });
+    }
+
+    private void closeContinuousSession(SegmentedRecorder recorder) {
+        recorder.writeSidecar("metrics.csv", metrics.toCsv());
+        recorder.writeSidecar("beat_template.csv", beatEnsemble.toCsv());
+        recorder.writeSidecar("respiration.csv", respirationEstimator.toCsv());
+        // Bekleyen parçaların yazımı analiz ve UI iş parçacıklarını bloklamasın
+        new Thread(() -> {
+            try {
+                recorder.close(SEGMENT_CLOSE_TIMEOUT_MS);
+                Log.d("SaveFile", "Oturum kapatıldı: " + recorder.getSessionDir().getAbsolutePath()
+                        + " (" + recorder.getTotalSamples() + " örnek, " + recorder.getDroppedSamples() + " düşen)");
+                runOnUiThread(() -> Toast.makeText(this, "Oturum kaydedildi: "
+                        + recorder.getSessionDir().getAbsolutePath(), Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                Log.e("SaveFile", "Oturum kapatılırken hata oluştu", e);
+                runOnUiThread(() -> Toast.makeText(this, "Oturum kaydedilemedi: " + e.getMessage(),
+                        Toast.LENGTH_LONG).show());
+            }
+        }, "SegmentClose").start();
     }
 
     private void showStatusToast(String message) {
@@ -539,6 +923,27 @@ public class MainActivity extends AppCompatActivity {
         fileContent.append(currentRecordingMethod.name()).append("\n");
         // *** END OF MODIFICATION ***
 
+        fileContent.append("stabilization_ms\n");
+        fileContent.append(lastStabilizationMs).append("\n");
+
+        // Kayıt sırasında kullanılan analiz kademesi (çözünürlük/seyreltme/bölge sayısı)
+        fileContent.append("analysis_level\n");
+        AnalysisResolutionController.Level level = recordingLevel;
+        fileContent.append(level != null ? level : resolutionController.getCurrentLevel()).append("\n");
+
+        // Kayıt sırasında sabitlenen ekran ışığı
+        fileContent.append("illumination\n");
+        fileContent.append("hue,brightness\n");
+        fileContent.append(hueSeekBar.getProgress()).append(",").append(brightnessSeekBar.getProgress()).append("\n");
+
+        // Kabul edilen vuruların ortalama dalga biçimi (ölçülen örnekleme hızıyla)
+        fileContent.append("beat_template\n");
+        fileContent.append(beatTemplateCsv);
+
+        // RIIV/RIAV/RIFV modülasyonlarından kestirilen solunum hızı
+        fileContent.append("respiration_rate\n");
+        fileContent.append(respirationCsv);
+
         fileContent.append("blood_sugar_value\n");
         fileContent.append(bloodSugarValue).append("\n");
 
@@ -547,6 +952,10 @@ public class MainActivity extends AppCompatActivity {
             fileContent.append(dataPoint).append("\n");
         }
 
+        // Oturumun performans özeti
+        fileContent.append("metrics\n");
+        fileContent.append(metrics.toCsv());
+
 
         try {
             File documentsFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
@@ -623,7 +1032,11 @@ public class MainActivity extends AppCompatActivity {
             data.addDataSet(set);
         }
 
-        data.addEntry(new Entry(set.getEntryCount(), value), 0);
+        data.addEntry(new Entry(chartXIndex++, value), 0);
+        // Uzun oturumlarda bellek sabit kalsın diye eski noktalar atılır
+        if (set.getEntryCount() > CHART_MAX_ENTRIES) {
+            set.removeFirst();
+        }
         data.notifyDataChanged();
         realtimeChart.notifyDataSetChanged();
 
@@ -631,7 +1044,7 @@ public class MainActivity extends AppCompatActivity {
         int entryCount = set.getEntryCount();
 
         if (entryCount < 2) {
-            realtimeChart.moveViewToX(data.getEntryCount());
+            realtimeChart.moveViewToX(chartXIndex);
             return;
         }
 
@@ -656,7 +1069,7 @@ public class MainActivity extends AppCompatActivity {
         leftAxis.setAxisMaximum(maxY + padding);
 
         realtimeChart.setVisibleXRangeMaximum(200);
-        realtimeChart.moveViewToX(data.getEntryCount());
+        realtimeChart.moveViewToX(chartXIndex);
     }
 
     private LineDataSet createSet() {
@@ -693,7 +1106,7 @@ public class MainActivity extends AppCompatActivity {
         cameraProviderFuture = ProcessCameraProvider.getInstance(this);
         cameraProviderFuture.addListener(() -> {
             try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
+                cameraProvider = cameraProviderFuture.get();
                 bindPreview(cameraProvider);
             } catch (ExecutionException | InterruptedException e) {
                 Log.e("CameraX", "Kamera başlatılamadı.", e);
@@ -722,6 +1135,7 @@ public class MainActivity extends AppCompatActivity {
                 })
                 .setNegativeButton("İptal", (dialog, which) -> {
                     Toast.makeText(this, "Bu izin olmadan ekran parlaklığı kontrol edilemez.", Toast.LENGTH_LONG).show();
+                    cameraExecutor.execute(() -> illuminationController.setBrightnessEnabled(false));
                     brightnessSeekBar.setEnabled(false);
                     brightnessValueText.setText("Mevcut Değil");
                 })
@@ -731,6 +1145,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void setupBrightnessSlider() {
         brightnessSeekBar.setEnabled(true);
+        cameraExecutor.execute(() -> illuminationController.setBrightnessEnabled(true));
         brightnessSeekBar.setMax(255);
         try {
             int currentSystemBrightness = Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS);
@@ -760,29 +1175,36 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void checkAndRequestStoragePermission() {
+        if (hasStoragePermission()) {
+            saveDataToCsv();
+        } else {
+            requestStoragePermission();
+        }
+    }
+
+    private boolean hasStoragePermission() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            if (!Environment.isExternalStorageManager()) {
-                try {
-                    Intent intent = new Intent(Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
-                    intent.addCategory("android.intent.category.DEFAULT");
-                    intent.setData(Uri.parse(String.format("package:%s", getApplicationContext().getPackageName())));
-                    startActivityForResult(intent, STORAGE_PERMISSION_REQUEST_CODE);
-                } catch (Exception e) {
-                    Intent intent = new Intent();
-                    intent.setAction(Settings.ACTION_MANAGE_ALL_FILES_ACCESS_PERMISSION);
-                    startActivityForResult(intent, STORAGE_PERMISSION_REQUEST_CODE);
-                }
-            } else {
-                saveDataToCsv();
+            return Environment.isExternalStorageManager();
+        }
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void requestStoragePermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try {
+                Intent intent = new Intent(Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
+                intent.addCategory("android.intent.category.DEFAULT");
+                intent.setData(Uri.parse(String.format("package:%s", getApplicationContext().getPackageName())));
+                startActivityForResult(intent, STORAGE_PERMISSION_REQUEST_CODE);
+            } catch (Exception e) {
+                Intent intent = new Intent();
+                intent.setAction(Settings.ACTION_MANAGE_ALL_FILES_ACCESS_PERMISSION);
+                startActivityForResult(intent, STORAGE_PERMISSION_REQUEST_CODE);
             }
         } else {
-            if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-                ActivityCompat.requestPermissions(this,
-                        new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE},
-                        STORAGE_PERMISSION_REQUEST_CODE);
-            } else {
-                saveDataToCsv();
-            }
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE},
+                    STORAGE_PERMISSION_REQUEST_CODE);
         }
     }
 
@@ -800,7 +1222,7 @@ public class MainActivity extends AppCompatActivity {
             case STORAGE_PERMISSION_REQUEST_CODE:
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                     Toast.makeText(this, "Depolama izni verildi.", Toast.LENGTH_SHORT).show();
-                    saveDataToCsv();
+                    if (currentState == AppState.WAITING_FOR_INPUT) saveDataToCsv();
                 } else {
                     Toast.makeText(this, "Dosyayı kaydetmek için depolama izni gereklidir.", Toast.LENGTH_LONG).show();
                 }
@@ -815,7 +1237,7 @@ public class MainActivity extends AppCompatActivity {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
                 if (Environment.isExternalStorageManager()) {
                     Toast.makeText(this, "Dosya erişim izni verildi.", Toast.LENGTH_SHORT).show();
-                    saveDataToCsv();
+                    if (currentState == AppState.WAITING_FOR_INPUT) saveDataToCsv();
                 } else {
                     Toast.makeText(this, "Kaydetmek için dosya erişim izni gereklidir.", Toast.LENGTH_LONG).show();
                 }
@@ -832,8 +1254,10 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        metricsOverlayText.removeCallbacks(metricsOverlayUpdater);
+        if (segmentedRecorder != null) stopContinuousSession();
+        stopStreaming();
+        streamExecutor.shutdown();
         cameraExecutor.shutdown();
-        if (stabilizationTimer != null) stabilizationTimer.cancel();
-        if (recordingTimer != null) recordingTimer.cancel();
     }
 }
\ No newline at end of file
@@ -0,0 +1,282 @@
+package com.gppg.ppg;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Kaydedilmiş bir örnek dosyası (little-endian float32, kanallar kare kare iç içe) için çok
+ * çözünürlüklü min/max piramidi.
+ * <p>
+ * Örnek dosyası ve piramit belleğe eşlenir; seri hiçbir zaman yığına yüklenmez. Seviye 0'da her
+ * blok {@code baseBlock} kareyi, her üst seviyede {@code fanout} alt bloğu özetler. Piramit örnek
+ * dosyasının yanında {@link #EXTENSION} uzantılı bir dosyada saklanır; kare sayısı veya düzeni
+ * uyuşmuyorsa yeniden oluşturulur. {@link #render} ekran genişliği kadar sütun üretir ve maliyeti
+ * kaydın uzunluğundan bağımsızdır. Düşen kareleri gösteren NaN örnekler zarfa katılmaz.
+ * <p>
+ * Şimdilik yalnızca arka uçtur: uygulamada bir inceleme/yakınlaştırma ekranına bağlı değildir.
+ */
+class MinMaxPyramid implements Closeable {
+
+    static final String EXTENSION = ".lod";
+    static final int DEFAULT_BASE_BLOCK = 16;
+    static final int DEFAULT_FANOUT = 8;
+
+    private static final int MAGIC = 0x50504C44; // "PPLD"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private final int channelCount;
+    private final int baseBlock;
+    private final int fanout;
+    private final long frameCount;
+    private final FloatBuffer samples;
+    private final FloatBuffer pyramid;
+    // Her seviyenin blok boyu (kare), blok sayısı ve piramit içindeki başlangıcı (float)
+    private final long[] blockFrames;
+    private final int[] blockCounts;
+    private final int[] levelOffsets;
+
+    private final RandomAccessFile sampleFile;
+    private final RandomAccessFile lodFile;
+
+    private MinMaxPyramid(RandomAccessFile sampleFile, RandomAccessFile lodFile, FloatBuffer samples,
+                          FloatBuffer pyramid, int channelCount, int baseBlock, int fanout, long frameCount) {
+        this.sampleFile = sampleFile;
+        this.lodFile = lodFile;
+        this.samples = samples;
+        this.pyramid = pyramid;
+        this.channelCount = channelCount;
+        this.baseBlock = baseBlock;
+        this.fanout = fanout;
+        this.frameCount = frameCount;
+        int levels = levelCount(frameCount, baseBlock, fanout);
+        this.blockFrames = new long[levels];
+        this.blockCounts = new int[levels];
+        this.levelOffsets = new int[levels];
+        long frames = baseBlock;
+        int offset = 0;
+        for (int level = 0; level < levels; level++) {
+            blockFrames[level] = frames;
+            blockCounts[level] = (int) ((frameCount + frames - 1) / frames);
+            levelOffsets[level] = offset;
+            offset += blockCounts[level] * channelCount * 2;
+            frames *= fanout;
+        }
+    }
+
+    static MinMaxPyramid open(File sampleFile, int channelCount) throws IOException {
+        return open(sampleFile, channelCount, DEFAULT_BASE_BLOCK, DEFAULT_FANOUT);
+    }
+
+    /**
+     * Örnek dosyasını eşler; geçerli bir piramit dosyası varsa onu yükler, yoksa tek geçişte oluşturur.
+     */
+    static MinMaxPyramid open(File sampleFile, int channelCount, int baseBlock, int fanout) throws IOException {
+        if (channelCount <= 0 || baseBlock <= 0 || fanout < 2) {
+            throw new IllegalArgumentException("Geçersiz piramit düzeni");
+        }
+        RandomAccessFile samplesRaf = new RandomAccessFile(sampleFile, "r");
+        RandomAccessFile lodRaf = null;
+        try {
+            long floatCount = samplesRaf.length() / 4;
+            if (floatCount > Integer.MAX_VALUE) throw new IOException("Örnek dosyası çok büyük: " + sampleFile);
+            // Yarım kalmış son kare (ör. çökme) yok sayılır
+            long frameCount = floatCount / channelCount;
+            FloatBuffer samples = samplesRaf.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, frameCount * channelCount * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+            long pyramidFloats = pyramidFloats(frameCount, channelCount, baseBlock, fanout);
+            long lodBytes = HEADER_BYTES + pyramidFloats * 4;
+            File file = lodFileFor(sampleFile);
+            lodRaf = new RandomAccessFile(file, "rw");
+            boolean valid = lodRaf.length() == lodBytes
+                    && headerMatches(lodRaf, channelCount, baseBlock, fanout, frameCount);
+            if (!valid) lodRaf.setLength(lodBytes);
+            MappedByteBuffer lodBuffer = lodRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, lodBytes);
+            lodBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            lodBuffer.position(HEADER_BYTES);
+            FloatBuffer pyramid = lodBuffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+            MinMaxPyramid result = new MinMaxPyramid(samplesRaf, lodRaf, samples, pyramid,
+                    channelCount, baseBlock, fanout, frameCount);
+            if (!valid) {
+                result.build();
+                // Başlık en son yazılır; yarıda kalan bir oluşturma sonraki açılışta tekrarlanır
+                lodBuffer.putInt(0, MAGIC);
+                lodBuffer.putInt(4, VERSION);
+                lodBuffer.putInt(8, channelCount);
+                lodBuffer.putInt(12, baseBlock);
+                lodBuffer.putInt(16, fanout);
+                lodBuffer.putLong(24, frameCount);
+                lodBuffer.force();
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            samplesRaf.close();
+            if (lodRaf != null) lodRaf.close();
+            throw e;
+        }
+    }
+
+    /** samples.f32 için samples.lod. */
+    static File lodFileFor(File sampleFile) {
+        String name = sampleFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(sampleFile.getParentFile(), base + EXTENSION);
+    }
+
+    private static boolean headerMatches(RandomAccessFile lod, int channelCount, int baseBlock, int fanout,
+                                         long frameCount) throws IOException {
+        if (lod.length() < HEADER_BYTES) return false;
+        MappedByteBuffer header = lod.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == channelCount
+                && header.getInt(12) == baseBlock && header.getInt(16) == fanout && header.getLong(24) == frameCount;
+    }
+
+    private static int levelCount(long frameCount, int baseBlock, int fanout) {
+        int levels = 1;
+        long frames = baseBlock;
+        while (frames < frameCount) {
+            frames *= fanout;
+            levels++;
+        }
+        return levels;
+    }
+
+    private static long pyramidFloats(long frameCount, int channelCount, int baseBlock, int fanout) {
+        long total = 0;
+        long frames = baseBlock;
+        int levels = levelCount(frameCount, baseBlock, fanout);
+        for (int level = 0; level < levels; level++) {
+            total += (frameCount + frames - 1) / frames * channelCount * 2;
+            frames *= fanout;
+        }
+        return total;
+    }
+
+    /** Seviye 0 örneklerden, her üst seviye bir alttakinden hesaplanır. */
+    private void build() {
+        for (int block = 0; block < blockCounts[0]; block++) {
+            int first = block * baseBlock;
+            int last = (int) Math.min(frameCount, (long) first + baseBlock);
+            for (int channel = 0; channel < channelCount; channel++) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int frame = first; frame < last; frame++) {
+                    float value = samples.get(frame * channelCount + channel);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+                putBlock(0, block, channel, min, max);
+            }
+        }
+        for (int level = 1; level < blockCounts.length; level++) {
+            for (int block = 0; block < blockCounts[level]; block++) {
+                int first = block * fanout;
+                int last = Math.min(blockCounts[level - 1], first + fanout);
+                for (int channel = 0; channel < channelCount; channel++) {
+                    float min = Float.POSITIVE_INFINITY;
+                    float max = Float.NEGATIVE_INFINITY;
+                    for (int child = first; child < last; child++) {
+                        int index = blockIndex(level - 1, child, channel);
+                        min = Math.min(min, pyramid.get(index));
+                        max = Math.max(max, pyramid.get(index + 1));
+                    }
+                    putBlock(level, block, channel, min, max);
+                }
+            }
+        }
+    }
+
+    private int blockIndex(int level, int block, int channel) {
+        return levelOffsets[level] + (block * channelCount + channel) * 2;
+    }
+
+    private void putBlock(int level, int block, int channel, float min, float max) {
+        int index = blockIndex(level, block, channel);
+        pyramid.put(index, min);
+        pyramid.put(index + 1, max);
+    }
+
+    /** Bir sütunun kapsadığı kare sayısı; sütun c, {@code startFrame + c * columnFrames} karesinde başlar. */
+    static long columnFrames(long startFrame, long endFrame, int maxPoints) {
+        long span = Math.max(1, endFrame - startFrame);
+        return (span + maxPoints - 1) / maxPoints;
+    }
+
+    /**
+     * [startFrame, endFrame) aralığını en fazla maxPoints sütuna indirger ve her sütunun min/max
+     * değerini yazar. Sütun başına en çok yaklaşık {@code fanout + 2} blok okunur. Sütun sınırları
+     * seçilen seviyenin blok sınırlarına yuvarlanır; zarf hiçbir zaman gerçek değerleri kırpmaz.
+     * Yalnızca düşen karelerden (NaN) oluşan bir sütunda min > max olur (boşluk).
+     *
+     * @return yazılan sütun sayısı
+     */
+    public int render(int channel, long startFrame, long endFrame, int maxPoints, float[] outMin, float[] outMax) {
+        startFrame = Math.max(0, startFrame);
+        endFrame = Math.min(frameCount, endFrame);
+        if (endFrame <= startFrame || maxPoints <= 0) return 0;
+        long perColumn = columnFrames(startFrame, endFrame, maxPoints);
+        int columns = (int) ((endFrame - startFrame + perColumn - 1) / perColumn);
+
+        // Sütun genişliğini aşmayan en kaba seviye; sütun bir bloktan darsa ham örnekler okunur
+        int level = -1;
+        while (level + 1 < blockFrames.length && blockFrames[level + 1] <= perColumn) level++;
+
+        for (int column = 0; column < columns; column++) {
+            long first = startFrame + column * perColumn;
+            long last = Math.min(endFrame, first + perColumn);
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            if (level < 0) {
+                for (long frame = first; frame < last; frame++) {
+                    float value = samples.get((int) (frame * channelCount + channel));
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+            } else {
+                long size = blockFrames[level];
+                int firstBlock = (int) (first / size);
+                int lastBlock = (int) ((last - 1) / size);
+                for (int block = firstBlock; block <= lastBlock; block++) {
+                    int index = blockIndex(level, block, channel);
+                    min = Math.min(min, pyramid.get(index));
+                    max = Math.max(max, pyramid.get(index + 1));
+                }
+            }
+            outMin[column] = min;
+            outMax[column] = max;
+        }
+        return columns;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getLevelCount() {
+        return blockFrames.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sampleFile.close();
+        } finally {
+            lodFile.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.gppg.ppg;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sıcak yol ölçümleri: aşama başına gecikme histogramları, kare aralıkları ve düşen kare sayısı.
+ * Kayıt çağrıları analiz iş parçacığından, okuma ise arayüzden yapılır.
+ */
+class PpgMetrics {
+
+    enum Stage {
+        GATING,   // parmak algılama (Y/V ortalamaları)
+        ROI,      // bölge ortalamaları
+        FILTER,   // LPF + MA + HPF
+        LIGHT,    // aydınlatma araması (açıksa)
+        CAPTURE,  // durum makinesi ve kayıt dinleyicileri (vuru, solunum, parça yazıcı)
+        STREAM,   // canlı yayın kodlaması (açıksa)
+        HANDOFF,  // analiz -> UI iş parçacığı geçişi
+        RENDER    // grafik güncelleme
+    }
+
+    // Aralık, tahmini kare süresinin bu katını aşarsa araya kare düşmüş sayılır
+    private static final double DROP_GAP_FACTOR = 1.5;
+    private static final double INTERVAL_EMA_ALPHA = 0.05;
+
+    private final LatencyHistogram[] stageHistograms = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram frameGapHistogram = new LatencyHistogram();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+
+    // Yalnızca analiz iş parçacığı tarafından kullanılır
+    private long lastFrameTimestampNanos = -1;
+    private double nominalIntervalNanos = 0;
+
+    PpgMetrics() {
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long elapsedNanos) {
+        stageHistograms[stage.ordinal()].recordNanos(elapsedNanos);
+    }
+
+    /** Sensör zaman damgası ile her kare için bir kez çağrılır. */
+    public void onFrame(long sensorTimestampNanos) {
+        frameCount.incrementAndGet();
+        if (lastFrameTimestampNanos >= 0) {
+            long gap = sensorTimestampNanos - lastFrameTimestampNanos;
+            if (gap > 0) {
+                frameGapHistogram.recordNanos(gap);
+                if (nominalIntervalNanos == 0) {
+                    nominalIntervalNanos = gap;
+                } else if (gap > nominalIntervalNanos * DROP_GAP_FACTOR) {
+                    long missed = Math.round(gap / nominalIntervalNanos) - 1;
+                    if (missed > 0) droppedFrameCount.addAndGet(missed);
+                } else {
+                    nominalIntervalNanos += INTERVAL_EMA_ALPHA * (gap - nominalIntervalNanos);
+                }
+            }
+        }
+        lastFrameTimestampNanos = sensorTimestampNanos;
+    }
+
+    public LatencyHistogram getStageHistogram(Stage stage) {
+        return stageHistograms[stage.ordinal()];
+    }
+
+    public LatencyHistogram getFrameGapHistogram() {
+        return frameGapHistogram;
+    }
+
+    /** Düşen kareler hariç tutulmuş tahmini kare aralığı; henüz ölçülmediyse 0. */
+    public long getNominalFrameIntervalNanos() {
+        return (long) nominalIntervalNanos;
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : stageHistograms) histogram.reset();
+        frameGapHistogram.reset();
+        frameCount.set(0);
+        droppedFrameCount.set(0);
+    }
+
+    /** Oturum dosyasına yazılan CSV biçimli özet. */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("name,count,mean_us,p50_us,p95_us,p99_us,max_us\n");
+        for (Stage stage : Stage.values()) {
+            appendCsvRow(sb, stage.name().toLowerCase(Locale.US), stageHistograms[stage.ordinal()]);
+        }
+        appendCsvRow(sb, "frame_gap", frameGapHistogram);
+        sb.append("frames,").append(frameCount.get()).append('\n');
+        sb.append("dropped_frames,").append(droppedFrameCount.get()).append('\n');
+        return sb.toString();
+    }
+
+    /** Ekran üstü hata ayıklama katmanı için kısa özet (ms). */
+    public String toOverlayText() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = stageHistograms[stage.ordinal()];
+            sb.append(String.format(Locale.US, "%-7s p50 %5.2f  p99 %6.2f ms%n",
+                    stage.name(), h.getPercentileMicros(50) / 1000.0, h.getPercentileMicros(99) / 1000.0));
+        }
+        sb.append(String.format(Locale.US, "GAP     p50 %5.1f  max %6.1f ms%n",
+                frameGapHistogram.getPercentileMicros(50) / 1000.0, frameGapHistogram.getMaxMicros() / 1000.0));
+        sb.append("Kare: ").append(frameCount.get()).append("  Düşen: ").append(droppedFrameCount.get());
+        return sb.toString();
+    }
+
+    private static void appendCsvRow(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(name).append(',')
+                .append(h.getCount()).append(',')
+                .append(h.getMeanMicros()).append(',')
+                .append(h.getPercentileMicros(50)).append(',')
+                .append(h.getPercentileMicros(95)).append(',')
+                .append(h.getPercentileMicros(99)).append(',')
+                .append(h.getMaxMicros()).append('\n');
+    }
+}
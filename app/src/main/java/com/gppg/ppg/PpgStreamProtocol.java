@@ -0,0 +1,70 @@
+package com.gppg.ppg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Canlı yayının ikili tel biçimi. Tüm sayılar big-endian'dır.
+ * <p>
+ * Her paket {@link #HEADER_BYTES} baytlık bir başlıkla başlar: {@link #MAGIC}, gövde uzunluğu ve
+ * paket sıra numarası. Alıcı sıra numarasındaki boşluklardan sunucunun düşürdüğü paketleri görür.
+ * Gövde, art arda gelen kayıtlardan oluşur; her kayıt bir tür baytı ve sensör zaman damgasıyla başlar:
+ * <ul>
+ *   <li>{@link #TYPE_SAMPLES}: bayraklar (bit 0 = sinyal iyi), örnek sayısı (short), float örnekler</li>
+ *   <li>{@link #TYPE_STATE}: önceki ve yeni {@link CaptureStateMachine.State} sırası (byte)</li>
+ *   <li>{@link #TYPE_METRICS}: kare sayısı, düşen kare sayısı, kare aralığı (ns), aşama sayısı
+ *       (byte) ve aşama başına p95 gecikme (µs, int)</li>
+ * </ul>
+ */
+final class PpgStreamProtocol {
+
+    static final int MAGIC = 0x50504753; // "PPGS"
+    static final int HEADER_BYTES = 12;
+
+    static final byte TYPE_SAMPLES = 1;
+    static final byte TYPE_STATE = 2;
+    static final byte TYPE_METRICS = 3;
+
+    static final int FLAG_SIGNAL_GOOD = 1;
+
+    private static final int RECORD_PREFIX_BYTES = 1 + 8;
+
+    private PpgStreamProtocol() {
+    }
+
+    static int samplesSize(int count) {
+        return RECORD_PREFIX_BYTES + 1 + 2 + count * 4;
+    }
+
+    static int stateSize() {
+        return RECORD_PREFIX_BYTES + 2;
+    }
+
+    static int metricsSize(int stageCount) {
+        return RECORD_PREFIX_BYTES + 8 * 3 + 1 + stageCount * 4;
+    }
+
+    static void putSamples(ByteBuffer out, long timestampNanos, boolean signalGood, float[] samples) {
+        out.put(TYPE_SAMPLES).putLong(timestampNanos);
+        out.put((byte) (signalGood ? FLAG_SIGNAL_GOOD : 0));
+        out.putShort((short) samples.length);
+        for (float sample : samples) out.putFloat(sample);
+    }
+
+    static void putState(ByteBuffer out, long timestampNanos, CaptureStateMachine.State previous,
+                         CaptureStateMachine.State current) {
+        out.put(TYPE_STATE).putLong(timestampNanos);
+        out.put((byte) previous.ordinal()).put((byte) current.ordinal());
+    }
+
+    static void putMetrics(ByteBuffer out, long timestampNanos, long frameCount, long droppedFrames,
+                           long frameIntervalNanos, int[] stageP95Micros) {
+        out.put(TYPE_METRICS).putLong(timestampNanos);
+        out.putLong(frameCount).putLong(droppedFrames).putLong(frameIntervalNanos);
+        out.put((byte) stageP95Micros.length);
+        for (int micros : stageP95Micros) out.putInt(micros);
+    }
+
+    static void putHeader(ByteBuffer out, int bodyLength, int sequence) {
+        out.putInt(MAGIC).putInt(bodyLength).putInt(sequence);
+    }
+}
@@ -0,0 +1,335 @@
+package com.gppg.ppg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Örnekleri, durum geçişlerini ve ölçümleri istemcilere canlı yayınlayan TCP sunucusu.
+ * <p>
+ * Yayında kimlik doğrulama yoktur ve fizyolojik veri taşır; bu yüzden varsayılan olarak yalnızca
+ * geri döngü arayüzüne bağlanır. İş istasyonundan USB üzerinden {@code adb forward tcp:8765 tcp:8765}
+ * ile erişilir. Başka bir arayüze bağlamak çağıranın açık kararıdır.
+ * <p>
+ * Kayıtlar analiz iş parçacığında {@link PpgStreamProtocol} biçiminde bir pakette biriktirilir ve
+ * paket {@link #BATCH_NANOS} sensör süresi dolunca (durum geçişlerinde hemen) tüm istemcilerin
+ * kuyruğuna eklenir. Gönderim tek bir engellemeyen NIO iş parçacığında yapılır. Her istemcinin
+ * kuyruğu bayt olarak sınırlıdır; yavaş bir istemcinin kuyruğu dolarsa yeni paketler o istemci için
+ * düşürülür, analiz iş parçacığı hiçbir zaman beklemez. İstemci yokken kayıtlar hiç kodlanmaz.
+ * <p>
+ * Paket tamponları bir havuzdan gelir ve tüm istemciler onları bırakınca havuza döner; havuz
+ * ihtiyaç oldukça {@link #MAX_PACKETS} pakete kadar büyür, sonrasında kararlı durumda gönderim
+ * bellek ayırmaz. Havuz tükenirse (çok sayıda küçük paket bekleten istemci) paket tüm istemciler
+ * için düşürülür.
+ * Android'e bağımlı değildir.
+ */
+class PpgStreamServer implements Closeable {
+
+    static final int DEFAULT_PORT = 8765;
+    static final int DEFAULT_MAX_QUEUE_BYTES = 256 * 1024;
+    static final long BATCH_NANOS = 50_000_000L;
+
+    static final int MAX_PACKETS = 512;
+
+    private static final int BATCH_CAPACITY = 16 * 1024;
+    private static final int MIN_PACKET_BYTES = 512;
+
+    /**
+     * Havuzdan gelen paket; sıraya alındığı her istemci bir referans tutar. Dizi taşıdığı en büyük
+     * pakete göre büyür, böylece havuz gerçek paket boyları kadar bellek tutar.
+     */
+    private static final class Packet {
+        byte[] data = new byte[MIN_PACKET_BYTES];
+        final AtomicInteger refs = new AtomicInteger();
+        int length;
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        // Her paket en çok bir kez sıraya girer; kapasite havuz boyu olduğu için ekleme hiç başarısız olmaz
+        final ArrayBlockingQueue<Packet> queue = new ArrayBlockingQueue<>(MAX_PACKETS);
+        final AtomicInteger queuedBytes = new AtomicInteger();
+        // Gönderilen paket buraya kopyalanır ve hemen bırakılır; yalnızca G/Ç iş parçacığı
+        final ByteBuffer inFlight = ByteBuffer.allocate(BATCH_CAPACITY);
+        boolean sending;
+        volatile boolean closed;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        boolean hasPending() {
+            return sending || !queue.isEmpty();
+        }
+    }
+
+    private final int maxQueueBytes;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final ArrayBlockingQueue<Packet> freePackets = new ArrayBlockingQueue<>(MAX_PACKETS);
+    private final Thread ioThread;
+    private volatile boolean running = true;
+
+    // Yalnızca üretici (analiz) iş parçacığı
+    private final ByteBuffer batch = ByteBuffer.allocate(BATCH_CAPACITY);
+    private long batchStartNanos = -1;
+    private int sequence = 0;
+    private int createdPackets = 0;
+
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+
+    PpgStreamServer(int port) throws IOException {
+        this(port, DEFAULT_MAX_QUEUE_BYTES);
+    }
+
+    PpgStreamServer(int port, int maxQueueBytes) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, maxQueueBytes);
+    }
+
+    /**
+     * @param bindAddress dinlenecek arayüz; geri döngü dışındaki bir adres yayını ağa açar
+     * @param port        0 ise boş bir port seçilir ({@link #getPort()})
+     */
+    PpgStreamServer(InetAddress bindAddress, int port, int maxQueueBytes) throws IOException {
+        this.maxQueueBytes = maxQueueBytes;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(bindAddress, port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        batch.position(PpgStreamProtocol.HEADER_BYTES);
+        ioThread = new Thread(this::runLoop, "PpgStream");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public void publishSamples(long timestampNanos, boolean signalGood, float[] samples) {
+        if (!reserve(timestampNanos, PpgStreamProtocol.samplesSize(samples.length))) return;
+        PpgStreamProtocol.putSamples(batch, timestampNanos, signalGood, samples);
+        flushIfDue(timestampNanos);
+    }
+
+    public void publishState(long timestampNanos, CaptureStateMachine.State previous, CaptureStateMachine.State current) {
+        if (!reserve(timestampNanos, PpgStreamProtocol.stateSize())) return;
+        PpgStreamProtocol.putState(batch, timestampNanos, previous, current);
+        flush();
+    }
+
+    public void publishMetrics(long timestampNanos, PpgMetrics metrics) {
+        PpgMetrics.Stage[] stages = PpgMetrics.Stage.values();
+        if (!reserve(timestampNanos, PpgStreamProtocol.metricsSize(stages.length))) return;
+        int[] p95 = new int[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            p95[i] = (int) Math.min(Integer.MAX_VALUE, metrics.getStageHistogram(stages[i]).getPercentileMicros(95));
+        }
+        PpgStreamProtocol.putMetrics(batch, timestampNanos, metrics.getFrameCount(),
+                metrics.getDroppedFrameCount(), metrics.getNominalFrameIntervalNanos(), p95);
+        flushIfDue(timestampNanos);
+    }
+
+    /** Yer yoksa mevcut paketi gönderir; istemci yoksa false döner. */
+    private boolean reserve(long timestampNanos, int size) {
+        if (clients.isEmpty()) {
+            batch.position(PpgStreamProtocol.HEADER_BYTES);
+            batchStartNanos = -1;
+            return false;
+        }
+        if (size > BATCH_CAPACITY - PpgStreamProtocol.HEADER_BYTES) return false;
+        if (batch.remaining() < size) flush();
+        if (batchStartNanos < 0) batchStartNanos = timestampNanos;
+        return true;
+    }
+
+    private void flushIfDue(long timestampNanos) {
+        if (timestampNanos - batchStartNanos >= BATCH_NANOS) flush();
+    }
+
+    /** Biriken kayıtları hemen gönderir. Üretici iş parçacığından çağrılmalıdır. */
+    public void flush() {
+        int length = batch.position();
+        if (length == PpgStreamProtocol.HEADER_BYTES) return;
+        batch.position(0);
+        PpgStreamProtocol.putHeader(batch, length - PpgStreamProtocol.HEADER_BYTES, sequence++);
+        batch.position(PpgStreamProtocol.HEADER_BYTES);
+        batchStartNanos = -1;
+
+        Packet packet = freePackets.poll();
+        if (packet == null && createdPackets < MAX_PACKETS) {
+            packet = new Packet();
+            createdPackets++;
+        }
+        if (packet == null) {
+            // Havuz tükendi: istemciler sıra numarası boşluğundan düşen paketi görür
+            droppedBatches.addAndGet(clients.size());
+            return;
+        }
+        if (packet.data.length < length) {
+            packet.data = new byte[Math.min(BATCH_CAPACITY, Math.max(length, packet.data.length * 2))];
+        }
+        System.arraycopy(batch.array(), 0, packet.data, 0, length);
+        packet.length = length;
+        // Üretici de bir referans tutar: istemciler dağıtım bitmeden paketi havuza döndüremez
+        packet.refs.set(1);
+
+        boolean queued = false;
+        for (Client client : clients) {
+            if (client.queuedBytes.get() + length > maxQueueBytes) {
+                // Yavaş istemci: bekleme yerine bu paketi atla
+                droppedBatches.incrementAndGet();
+                continue;
+            }
+            client.queuedBytes.addAndGet(length);
+            packet.refs.incrementAndGet();
+            client.queue.offer(packet);
+            // Kapanan istemcinin kuyruğunu G/Ç iş parçacığı boşaltmış olabilir
+            if (client.closed) releaseQueued(client);
+            queued = true;
+        }
+        release(packet);
+        sentBatches.incrementAndGet();
+        if (queued) selector.wakeup();
+    }
+
+    private void release(Packet packet) {
+        if (packet.refs.decrementAndGet() == 0) freePackets.offer(packet);
+    }
+
+    /** Kuyruktaki paketleri bırakır; poll atomik olduğu için her paket bir kez bırakılır. */
+    private void releaseQueued(Client client) {
+        Packet packet;
+        while ((packet = client.queue.poll()) != null) release(packet);
+    }
+
+    private void runLoop() {
+        ByteBuffer discard = ByteBuffer.allocate(256);
+        try {
+            while (running) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                // İstemciden veri beklenmez; yalnızca kapanışı algılamak için okunur
+                                discard.clear();
+                                if (client.channel.read(discard) < 0) {
+                                    disconnect(client);
+                                    continue;
+                                }
+                            }
+                            if (key.isValid() && key.isWritable()) drain(client);
+                        } catch (IOException e) {
+                            disconnect(client);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                for (Client client : clients) {
+                    SelectionKey key = client.channel.keyFor(selector);
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ | (client.hasPending() ? SelectionKey.OP_WRITE : 0));
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // sunucu kapanıyor
+        } finally {
+            for (Client client : clients) disconnect(client);
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+    }
+
+    private void drain(Client client) throws IOException {
+        while (true) {
+            if (!client.sending) {
+                Packet packet = client.queue.poll();
+                if (packet == null) return;
+                client.inFlight.clear();
+                client.inFlight.put(packet.data, 0, packet.length).flip();
+                release(packet);
+                client.sending = true;
+            }
+            client.channel.write(client.inFlight);
+            if (client.inFlight.hasRemaining()) return; // soket tamponu dolu
+            client.queuedBytes.addAndGet(-client.inFlight.limit());
+            client.sending = false;
+        }
+    }
+
+    private void disconnect(Client client) {
+        client.closed = true;
+        clients.remove(client);
+        closeQuietly(client.channel);
+        releaseQueued(client);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // kapanışta hata önemsiz
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    /** İstemci kuyruğu dolu olduğu için atlanan paket sayısı (istemci başına sayılır). */
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
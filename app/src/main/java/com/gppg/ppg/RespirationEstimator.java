@@ -0,0 +1,332 @@
+package com.gppg.ppg;
+
+import java.util.Locale;
+
+/**
+ * PPG'nin solunumla oluşan üç modülasyonundan solunum hızı kestirir:
+ * <ul>
+ *   <li>RIIV: yüksek geçiren filtreden önceki taban çizgisi (yoğunluk) değişimi</li>
+ *   <li>RIAV: {@link BeatEnsemble} vurularının genlik değişimi</li>
+ *   <li>RIFV: vuru aralığının değişimi (solunumsal sinüs aritmisi)</li>
+ * </ul>
+ * Her seri {@link #RESAMPLE_HZ} Hz'lik düzenli bir ızgaraya indirgenir: taban çizgisi bir vuru aralığı
+ * uzunluğundaki kayan ortalamadan örneklenir (kalp bileşeni ve harmonikleri bantta örtüşmesin diye),
+ * vuru serileri ise vurular arasında doğrusal ara değerlemeyle doldurulur. Son {@link #WINDOW_SECONDS}
+ * saniye halka tamponlarda tutulur. Saniyede bir her seri doğrusal eğilimden arındırılır, Hann
+ * penceresiyle solunum bandında (0,1-0,6 Hz) doğrudan DFT alınır ve tepe frekansı bulunur. Tepe
+ * gücünün bant ortalamasına oranı (belirginlik) seriye güven ağırlığı olarak kullanılır: en belirgin
+ * seriyle uyuşan seriler ağırlıklı olarak ortalanır. Gürültü tepeleri seriler arasında nadiren uyuştuğu
+ * için tek başına kalan bir seri ancak çok belirginse kabul edilir.
+ * <p>
+ * Kare başına maliyet sabittir; spektrum saniyede bir, yaklaşık 3 × 51 × 128 çarpımla hesaplanır.
+ * Tüm çağrılar analiz iş parçacığından yapılmalıdır. Android'e bağımlı değildir.
+ */
+class RespirationEstimator implements BeatEnsemble.Listener {
+
+    enum Source {
+        RIIV,
+        RIAV,
+        RIFV
+    }
+
+    static final double RESAMPLE_HZ = 4.0;
+    static final int WINDOW_SECONDS = 32;
+    static final double MIN_FREQUENCY_HZ = 0.1;
+    static final double MAX_FREQUENCY_HZ = 0.6;
+    static final float MIN_PROMINENCE = 5f;
+    static final float SOLO_PROMINENCE = 10f;
+    static final float MAX_SPREAD_BPM = 4f;
+
+    private static final long GRID_NANOS = (long) (1e9 / RESAMPLE_HZ);
+    private static final long UPDATE_NANOS = 1_000_000_000L;
+    private static final int CAPACITY = (int) (WINDOW_SECONDS * RESAMPLE_HZ);
+    private static final int MIN_SAMPLES = (int) (15 * RESAMPLE_HZ);
+    private static final long MAX_BEAT_GAP_NANOS = 3_000_000_000L;
+    private static final long DEFAULT_CARDIAC_NANOS = 1_000_000_000L;
+    private static final double CARDIAC_ALPHA = 0.2;
+    private static final int BASELINE_CAPACITY = 512; // 2 sn'lik vuru aralığını 240 fps'e kadar kapsar
+    private static final double FREQUENCY_STEP_HZ = 0.01;
+    private static final int BIN_COUNT = (int) Math.round((MAX_FREQUENCY_HZ - MIN_FREQUENCY_HZ) / FREQUENCY_STEP_HZ) + 1;
+
+    // Sabit frekans ızgarası için önceden hesaplanmış DFT çekirdekleri: [bin][örnek]
+    private static final float[][] COS = new float[BIN_COUNT][CAPACITY];
+    private static final float[][] SIN = new float[BIN_COUNT][CAPACITY];
+
+    static {
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            double omega = 2 * Math.PI * frequencyOf(bin) / RESAMPLE_HZ;
+            for (int k = 0; k < CAPACITY; k++) {
+                COS[bin][k] = (float) Math.cos(omega * k);
+                SIN[bin][k] = (float) Math.sin(omega * k);
+            }
+        }
+    }
+
+    /** Sabit kapasiteli halka tampon. */
+    private static final class Series {
+        final float[] values = new float[CAPACITY];
+        int count = 0;
+        int head = 0;
+
+        void add(float value) {
+            values[head] = value;
+            head = (head + 1) % CAPACITY;
+            if (count < CAPACITY) count++;
+        }
+
+        /** En eski örnekten başlayarak son count örneği out dizisine kopyalar. */
+        void copyTo(float[] out) {
+            int start = (head - count + CAPACITY) % CAPACITY;
+            for (int i = 0; i < count; i++) out[i] = values[(start + i) % CAPACITY];
+        }
+
+        void clear() {
+            count = 0;
+            head = 0;
+        }
+    }
+
+    private final Series[] series = new Series[Source.values().length];
+    private final float[] scratch = new float[CAPACITY];
+    private final float[] rates = new float[Source.values().length];
+    private final float[] prominences = new float[Source.values().length];
+    private float fusedRate = Float.NaN;
+
+    // RIIV: bir vuru aralığı boyunca kayan ortalama
+    private final long[] baselineTimes = new long[BASELINE_CAPACITY];
+    private final float[] baselineValues = new float[BASELINE_CAPACITY];
+    private int baselineHead = 0;
+    private int baselineCount = 0;
+    private double baselineSum = 0;
+    private long cardiacNanos = DEFAULT_CARDIAC_NANOS;
+    private long nextBaselineGridNanos = -1;
+    private double gridSum;
+    private int gridCount;
+
+    // Vuru serilerinin ara değerlemesi
+    private long lastBeatNanos = -1;
+    private float lastAmplitude;
+    private float lastInterval;
+    private long nextBeatGridNanos;
+
+    private long lastUpdateNanos = -1;
+
+    RespirationEstimator() {
+        for (int i = 0; i < series.length; i++) series[i] = new Series();
+        clearEstimates();
+    }
+
+    /** Yeni bir ölçüm için tüm serileri ve kestirimleri temizler. */
+    public void reset() {
+        breakSequence();
+        clearEstimates();
+        fusedRate = Float.NaN;
+        cardiacNanos = DEFAULT_CARDIAC_NANOS;
+        lastUpdateNanos = -1;
+    }
+
+    /** Sinyal kesildiğinde serileri boşaltır; son kestirim korunur. */
+    public void breakSequence() {
+        for (Series s : series) s.clear();
+        baselineHead = 0;
+        baselineCount = 0;
+        baselineSum = 0;
+        nextBaselineGridNanos = -1;
+        gridSum = 0;
+        gridCount = 0;
+        lastBeatNanos = -1;
+    }
+
+    private void clearEstimates() {
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = Float.NaN;
+            prominences[i] = 0f;
+        }
+    }
+
+    /**
+     * Her kayıt karesinde yüksek geçiren filtreden önceki ROI düzeyiyle çağrılır; kestirim saniyede
+     * bir burada güncellenir.
+     */
+    public void onBaseline(long timestampNanos, float level) {
+        if (baselineCount == BASELINE_CAPACITY) dropOldestBaseline();
+        int slot = (baselineHead + baselineCount) % BASELINE_CAPACITY;
+        baselineTimes[slot] = timestampNanos;
+        baselineValues[slot] = level;
+        baselineCount++;
+        baselineSum += level;
+        while (baselineCount > 1 && timestampNanos - baselineTimes[baselineHead] >= cardiacNanos) {
+            dropOldestBaseline();
+        }
+
+        // Kayan ortalama ızgara aralığı boyunca bir kez daha ortalanır (4 Hz'e örtüşme önleyici)
+        double smoothed = baselineSum / baselineCount;
+        if (nextBaselineGridNanos < 0) nextBaselineGridNanos = timestampNanos + cardiacNanos;
+        while (timestampNanos >= nextBaselineGridNanos) {
+            // Düşen kareler nedeniyle boş kalan ızgara noktaları son ortalamayla doldurulur
+            series[Source.RIIV.ordinal()].add((float) (gridCount > 0 ? gridSum / gridCount : smoothed));
+            gridSum = 0;
+            gridCount = 0;
+            nextBaselineGridNanos += GRID_NANOS;
+        }
+        gridSum += smoothed;
+        gridCount++;
+
+        if (lastUpdateNanos < 0) lastUpdateNanos = timestampNanos;
+        if (timestampNanos - lastUpdateNanos >= UPDATE_NANOS) {
+            lastUpdateNanos = timestampNanos;
+            update();
+        }
+    }
+
+    private void dropOldestBaseline() {
+        baselineSum -= baselineValues[baselineHead];
+        baselineHead = (baselineHead + 1) % BASELINE_CAPACITY;
+        baselineCount--;
+    }
+
+    @Override
+    public void onBeat(BeatEnsemble.Beat beat) {
+        if (!beat.accepted) return;
+        // Ortalama penceresi vuru aralığını izler; tek vurunun zamanlama titremesi yumuşatılır
+        long duration = Math.min(beat.durationNanos, BeatEnsemble.MAX_BEAT_NANOS);
+        cardiacNanos += (long) (CARDIAC_ALPHA * (duration - cardiacNanos));
+        long time = beat.startNanos + beat.durationNanos;
+        float amplitude = beat.amplitude;
+        float interval = beat.durationNanos / 1e9f;
+        if (lastBeatNanos < 0 || time - lastBeatNanos > MAX_BEAT_GAP_NANOS) {
+            // İlk vuru veya uzun boşluk: ara değerleme bu vurudan yeniden başlar
+            if (lastBeatNanos >= 0) {
+                series[Source.RIAV.ordinal()].clear();
+                series[Source.RIFV.ordinal()].clear();
+            }
+            nextBeatGridNanos = time;
+        } else {
+            while (nextBeatGridNanos <= time) {
+                float fraction = (float) (nextBeatGridNanos - lastBeatNanos) / (time - lastBeatNanos);
+                series[Source.RIAV.ordinal()].add(lastAmplitude + (amplitude - lastAmplitude) * fraction);
+                series[Source.RIFV.ordinal()].add(lastInterval + (interval - lastInterval) * fraction);
+                nextBeatGridNanos += GRID_NANOS;
+            }
+        }
+        lastBeatNanos = time;
+        lastAmplitude = amplitude;
+        lastInterval = interval;
+    }
+
+    private void update() {
+        for (Source source : Source.values()) {
+            Series s = series[source.ordinal()];
+            if (s.count < MIN_SAMPLES) {
+                rates[source.ordinal()] = Float.NaN;
+                prominences[source.ordinal()] = 0f;
+                continue;
+            }
+            s.copyTo(scratch);
+            estimate(scratch, s.count, source.ordinal());
+        }
+        fuse();
+    }
+
+    /** Doğrusal eğilim çıkarılır, Hann penceresi uygulanır ve bant içi güç tepesi aranır. */
+    private void estimate(float[] x, int n, int index) {
+        double meanK = (n - 1) / 2.0;
+        double meanX = 0;
+        for (int k = 0; k < n; k++) meanX += x[k];
+        meanX /= n;
+        double covariance = 0;
+        double variance = 0;
+        for (int k = 0; k < n; k++) {
+            covariance += (k - meanK) * (x[k] - meanX);
+            variance += (k - meanK) * (k - meanK);
+        }
+        double slope = covariance / variance;
+        for (int k = 0; k < n; k++) {
+            double hann = 0.5 - 0.5 * Math.cos(2 * Math.PI * k / (n - 1));
+            x[k] = (float) ((x[k] - meanX - slope * (k - meanK)) * hann);
+        }
+
+        double powerSum = 0;
+        double bestPower = -1;
+        int bestBin = 0;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            float[] cos = COS[bin];
+            float[] sin = SIN[bin];
+            double re = 0;
+            double im = 0;
+            for (int k = 0; k < n; k++) {
+                re += x[k] * cos[k];
+                im += x[k] * sin[k];
+            }
+            double power = re * re + im * im;
+            powerSum += power;
+            if (power > bestPower) {
+                bestPower = power;
+                bestBin = bin;
+            }
+        }
+        double meanPower = powerSum / BIN_COUNT;
+        prominences[index] = meanPower > 0 ? (float) (bestPower / meanPower) : 0f;
+        rates[index] = (float) (frequencyOf(bestBin) * 60);
+    }
+
+    /** En belirgin seriyle uyuşan belirgin serilerin ağırlıklı ortalaması. */
+    private void fuse() {
+        int best = -1;
+        boolean evaluated = false;
+        for (int i = 0; i < rates.length; i++) {
+            if (Float.isNaN(rates[i])) continue;
+            evaluated = true;
+            if (prominences[i] >= MIN_PROMINENCE && (best < 0 || prominences[i] > prominences[best])) best = i;
+        }
+        double weightedSum = 0;
+        double weightSum = 0;
+        int agreeing = 0;
+        if (best >= 0) {
+            for (int i = 0; i < rates.length; i++) {
+                if (Float.isNaN(rates[i]) || prominences[i] < MIN_PROMINENCE) continue;
+                if (Math.abs(rates[i] - rates[best]) > MAX_SPREAD_BPM) continue;
+                weightedSum += rates[i] * prominences[i];
+                weightSum += prominences[i];
+                agreeing++;
+            }
+        }
+        if (best < 0 || (agreeing < 2 && prominences[best] < SOLO_PROMINENCE)) {
+            // Yeterli veri varken güvenilir tepe yoksa solunum ritmi yok sayılır;
+            // veri yetersizse (ör. sinyal kesintisi sonrası) önceki değer korunur
+            if (evaluated) fusedRate = Float.NaN;
+            return;
+        }
+        fusedRate = (float) (weightedSum / weightSum);
+    }
+
+    private static double frequencyOf(int bin) {
+        return MIN_FREQUENCY_HZ + bin * FREQUENCY_STEP_HZ;
+    }
+
+    /** Birleşik solunum hızı (nefes/dk); henüz güvenilir kestirim yoksa NaN. */
+    public float getRespirationRate() {
+        return fusedRate;
+    }
+
+    /** Tek bir modülasyon serisinden son kestirim (nefes/dk); veri yetersizse NaN. */
+    public float getRate(Source source) {
+        return rates[source.ordinal()];
+    }
+
+    public float getProminence(Source source) {
+        return prominences[source.ordinal()];
+    }
+
+    /** Oturum dosyası için birleşik ve seri başına kestirimler. */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("source,rate_bpm,prominence\n");
+        sb.append(String.format(Locale.US, "fused,%.1f,\n", fusedRate));
+        for (Source source : Source.values()) {
+            sb.append(String.format(Locale.US, "%s,%.1f,%.2f\n", source.name().toLowerCase(Locale.US),
+                    rates[source.ordinal()], prominences[source.ordinal()]));
+        }
+        return sb.toString();
+    }
+}
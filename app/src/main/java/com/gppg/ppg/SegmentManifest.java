@@ -0,0 +1,155 @@
+package com.gppg.ppg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SegmentedRecorder} tarafından yazılan manifest'i okur; parçaları sırayla birleştirmeye
+ * ve zamana göre rastgele erişime izin verir. Parçalar oturumun örnek dosyasındaki aralıklardır.
+ * Çökmeden sonra son parça, diske inmiş bloklarıyla (kısaltılmış olarak) okunur.
+ */
+class SegmentManifest {
+
+    static final class Entry {
+        final int index;
+        final long startSample;
+        final int sampleCount;
+        final long startTimestampNanos;
+        final long endTimestampNanos;
+
+        Entry(int index, long startSample, int sampleCount, long startTimestampNanos, long endTimestampNanos) {
+            this.index = index;
+            this.startSample = startSample;
+            this.sampleCount = sampleCount;
+            this.startTimestampNanos = startTimestampNanos;
+            this.endTimestampNanos = endTimestampNanos;
+        }
+    }
+
+    private final File sessionDir;
+    private final List<Entry> entries;
+
+    private SegmentManifest(File sessionDir, List<Entry> entries) {
+        this.sessionDir = sessionDir;
+        this.entries = entries;
+    }
+
+    static SegmentManifest read(File sessionDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        File manifestFile = new File(sessionDir, SegmentedRecorder.MANIFEST_NAME);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8))) {
+            String line = reader.readLine(); // başlık
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                // Çökme sırasında yarım kalmış son satır yok sayılır
+                if (parts.length != 5) continue;
+                Entry row;
+                try {
+                    row = new Entry(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                            Integer.parseInt(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+                } catch (NumberFormatException e) {
+                    continue; // yarım satır
+                }
+                // Parça blok blok yazılır: aynı parçanın ardışık satırları tek girişte birleşir
+                Entry previous = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+                if (previous != null && previous.index == row.index
+                        && previous.startSample + previous.sampleCount == row.startSample) {
+                    entries.set(entries.size() - 1, new Entry(previous.index, previous.startSample,
+                            previous.sampleCount + row.sampleCount, previous.startTimestampNanos,
+                            row.endTimestampNanos));
+                } else {
+                    entries.add(row);
+                }
+            }
+        }
+        // Yazıcı tek iş parçacıklı olduğundan satırlar zaten sıralıdır
+        return new SegmentManifest(sessionDir, entries);
+    }
+
+    public int getSegmentCount() {
+        return entries.size();
+    }
+
+    public Entry getEntry(int position) {
+        return entries.get(position);
+    }
+
+    /** Kayıtlı örnek sayısı (düşen örnekler hariç). */
+    public long getStoredSampleCount() {
+        long total = 0;
+        for (Entry entry : entries) total += entry.sampleCount;
+        return total;
+    }
+
+    /**
+     * Ardışık parçalar arasında ne atlanmış örnek ne de zaman boşluğu yoksa true. Sinyal kaybı ve
+     * yeniden dengelenme örnek indeksini atlatmaz ama zaman damgalarında boşluk bırakır.
+     *
+     * @param maxGapNanos bir parçanın son karesiyle sonrakinin ilk karesi arasında izin verilen en
+     *                    uzun süre (ör. kare aralığının iki katı)
+     */
+    public boolean isContiguous(long maxGapNanos) {
+        for (int i = 1; i < entries.size(); i++) {
+            Entry previous = entries.get(i - 1);
+            Entry next = entries.get(i);
+            if (previous.startSample + previous.sampleCount != next.startSample) return false;
+            if (next.startTimestampNanos - previous.endTimestampNanos > maxGapNanos) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Verilen zaman damgasını içeren (ya da ondan önceki en yakın) parçanın sırasını döndürür;
+     * zaman ilk parçadan önceyse -1.
+     */
+    public int findSegment(long timestampNanos) {
+        int low = 0;
+        int high = entries.size() - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).startTimestampNanos <= timestampNanos) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /** Zaman damgasına karşılık gelen parça içi örnek konumu (parça içinde doğrusal zaman varsayımı). */
+    public int offsetWithinSegment(int position, long timestampNanos) {
+        Entry entry = entries.get(position);
+        long span = entry.endTimestampNanos - entry.startTimestampNanos;
+        if (span <= 0 || entry.sampleCount <= 1) return 0;
+        long offset = (timestampNanos - entry.startTimestampNanos) * (entry.sampleCount - 1) / span;
+        return (int) Math.max(0, Math.min(entry.sampleCount - 1, offset));
+    }
+
+    public float[] readSegment(int position) throws IOException {
+        Entry entry = entries.get(position);
+        ByteBuffer buffer = ByteBuffer.allocate(entry.sampleCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile file = new RandomAccessFile(new File(sessionDir, SegmentedRecorder.SAMPLES_NAME), "r")) {
+            long offset = entry.startSample * 4;
+            while (buffer.hasRemaining()) {
+                int read = file.getChannel().read(buffer, offset + buffer.position());
+                if (read < 0) throw new IOException("Örnek dosyası eksik: parça " + entry.index);
+            }
+        }
+        buffer.flip();
+        float[] samples = new float[entry.sampleCount];
+        buffer.asFloatBuffer().get(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,280 @@
+package com.gppg.ppg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uzun süreli izleme için kareleri oturumun tek örnek dosyasına ({@link #SAMPLES_NAME}, little-endian
+ * float32, kanallar kare kare iç içe) yazar ve sabit sayıda karelik parçalara böler.
+ * <p>
+ * Parçalar ayrı dosyalar değil, örnek dosyasındaki mantıksal aralıklardır; manifest her parçanın
+ * başlangıç örneğini, örnek sayısını ve zaman aralığını tutar. Açık parça, dolmasını beklemeden küçük
+ * bloklar halinde eklenir: her blok arka planda yazılır, diske zorlanır ve ardından manifest'e bir satır
+ * olarak eklenir (bir parça büyüdükçe birden çok satırla anlatılır, {@link SegmentManifest} bunları
+ * birleştirir). Düşen kareler dosyaya NaN olarak yazılır, böylece dosyadaki konum her zaman örnek
+ * indeksine eşittir ve {@link MinMaxPyramid} dosyayı doğrudan eşleyebilir.
+ * <p>
+ * Bellek kullanımı sabittir: varsayılan blok havuzunun toplam kapasitesi tam bir parçadır. Bir blok
+ * ancak manifest satırı diske indikten sonra havuza döndüğü için çökmede kaybolabilecek veri, yazıcı
+ * ne kadar geride kalırsa kalsın havuz kapasitesiyle, yani en çok bir parçayla sınırlıdır; normalde
+ * yalnızca son bloktur. Havuz boşalırsa kareler bütün olarak düşürülür (bir karenin kanalları hiçbir
+ * zaman bölünmez), ardından yeni bir parça başlar ve atlanan örnek sayısı manifest'teki
+ * {@code start_sample} boşluğundan görülür.
+ * <p>
+ * {@link #append} tek bir üretici iş parçacığından çağrılmalıdır.
+ */
+class SegmentedRecorder {
+
+    static final String MANIFEST_NAME = "manifest.csv";
+    static final String MANIFEST_HEADER = "index,start_sample,sample_count,start_ns,end_ns";
+    static final String SAMPLES_NAME = "samples.f32";
+    // 60 sn'lik parça 5 sn'lik bloklarla yazılır
+    static final int DEFAULT_BLOCKS_PER_SEGMENT = 12;
+
+    private static final class Block {
+        final float[] samples;
+        int count;
+        int frames;
+        int segmentIndex;
+        long startSample;
+        long startTimestampNanos;
+        long endTimestampNanos;
+
+        Block(int capacity) {
+            samples = new float[capacity];
+        }
+    }
+
+    private final File sessionDir;
+    private final int channels;
+    private final int segmentFrames;
+    private final int blockFrames;
+    private final BlockingQueue<Block> freeBlocks;
+    private final ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+    private final ByteBuffer writeBuffer;
+    private final FileChannel samplesChannel;
+    private final float[] single = new float[1];
+    // Yalnızca yazıcı iş parçacığı: örnek dosyasına yazılmış (NaN dolgu dahil) örnek sayısı
+    private long samplesFileCount = 0;
+    private ByteBuffer gapBuffer;
+
+    private Block current;
+    private boolean segmentOpen = false;
+    private int segmentIndex = -1;
+    private int framesInSegment = 0;
+    private long totalSamples = 0;
+    private long droppedSamples = 0;
+    private volatile IOException lastError;
+
+    /** Parça {@link #DEFAULT_BLOCKS_PER_SEGMENT} blokla yazılır; havuz tam bir parçadır. */
+    SegmentedRecorder(File sessionDir, int channels, int segmentFrames) throws IOException {
+        this(sessionDir, channels, segmentFrames, defaultBlockFrames(segmentFrames),
+                segmentFrames / defaultBlockFrames(segmentFrames));
+    }
+
+    /**
+     * @param channels      her karedeki örnek sayısı; oturum boyunca sabittir
+     * @param segmentFrames bir parçadaki kare sayısı (örnek sayısı değil, bölge sayısından bağımsız süre)
+     * @param blockFrames   diske tek seferde eklenen kare sayısı
+     * @param poolBlocks    blok havuzu boyu; çökmede kayıp en çok {@code poolBlocks * blockFrames} karedir
+     */
+    SegmentedRecorder(File sessionDir, int channels, int segmentFrames, int blockFrames, int poolBlocks)
+            throws IOException {
+        if (channels <= 0 || segmentFrames <= 0 || blockFrames <= 0 || blockFrames > segmentFrames
+                || poolBlocks <= 0) {
+            throw new IllegalArgumentException("Geçersiz parça düzeni: " + channels + " kanal, "
+                    + segmentFrames + " kare, " + blockFrames + " karelik " + poolBlocks + " blok");
+        }
+        if (!sessionDir.exists() && !sessionDir.mkdirs()) {
+            throw new IOException("Oturum klasörü oluşturulamadı: " + sessionDir);
+        }
+        this.sessionDir = sessionDir;
+        this.channels = channels;
+        this.segmentFrames = segmentFrames;
+        this.blockFrames = blockFrames;
+        int blockSamples = blockFrames * channels;
+        this.writeBuffer = ByteBuffer.allocate(blockSamples * 4).order(ByteOrder.LITTLE_ENDIAN);
+        this.freeBlocks = new ArrayBlockingQueue<>(poolBlocks);
+        for (int i = 0; i < poolBlocks; i++) {
+            freeBlocks.add(new Block(blockSamples));
+        }
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(sessionDir, MANIFEST_NAME)), StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_HEADER + "\n");
+        }
+        this.samplesChannel = new FileOutputStream(new File(sessionDir, SAMPLES_NAME)).getChannel();
+    }
+
+    private static int defaultBlockFrames(int segmentFrames) {
+        return Math.max(1, (segmentFrames + DEFAULT_BLOCKS_PER_SEGMENT - 1) / DEFAULT_BLOCKS_PER_SEGMENT);
+    }
+
+    /** Tek kanallı akışlar için {@link #append(long, float[])}. */
+    public void append(long timestampNanos, float sample) {
+        single[0] = sample;
+        append(timestampNanos, single);
+    }
+
+    /**
+     * Bir karenin tüm kanallarını ekler. Yazıcı geride kaldığı için boş blok yoksa kare bütünüyle
+     * düşürülür ama örnek sayacı ilerler.
+     */
+    public void append(long timestampNanos, float[] frame) {
+        if (frame.length != channels) {
+            throw new IllegalArgumentException("Kare " + frame.length + " kanal, oturum " + channels + " kanal");
+        }
+        if (current == null) {
+            current = freeBlocks.poll();
+            if (current == null) {
+                droppedSamples += channels;
+                totalSamples += channels;
+                // Parça kendi içinde kesintisiz kalsın: düşen karelerden sonra yeni parça başlar
+                segmentOpen = false;
+                return;
+            }
+            if (!segmentOpen) {
+                segmentIndex++;
+                framesInSegment = 0;
+                segmentOpen = true;
+            }
+            current.count = 0;
+            current.frames = 0;
+            current.segmentIndex = segmentIndex;
+            current.startSample = totalSamples;
+            current.startTimestampNanos = timestampNanos;
+        }
+        System.arraycopy(frame, 0, current.samples, current.count, channels);
+        current.count += channels;
+        current.frames++;
+        current.endTimestampNanos = timestampNanos;
+        totalSamples += channels;
+        framesInSegment++;
+        if (framesInSegment == segmentFrames) {
+            segmentOpen = false;
+            flushBlock();
+        } else if (current.frames == blockFrames) {
+            flushBlock();
+        }
+    }
+
+    /** Süreklilik bozulduğunda (ör. sinyal kaybı) açık parçayı erken kapatır. */
+    public void breakSegment() {
+        if (current != null && current.count > 0) {
+            flushBlock();
+        }
+        segmentOpen = false;
+    }
+
+    private void flushBlock() {
+        final Block block = current;
+        current = null;
+        writerExecutor.execute(() -> {
+            try {
+                writeBlock(block);
+            } catch (IOException e) {
+                lastError = e;
+            } finally {
+                freeBlocks.offer(block);
+            }
+        });
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        padSamplesFile(block.startSample);
+        writeBuffer.clear();
+        writeBuffer.asFloatBuffer().put(block.samples, 0, block.count);
+        writeBuffer.limit(block.count * 4);
+        while (writeBuffer.hasRemaining()) samplesChannel.write(writeBuffer);
+        samplesFileCount += block.count;
+        samplesChannel.force(false);
+        // Manifest satırı ancak veri diske indikten sonra eklenir
+        String line = block.segmentIndex + "," + block.startSample + "," + block.count
+                + "," + block.startTimestampNanos + "," + block.endTimestampNanos + "\n";
+        try (FileOutputStream out = new FileOutputStream(new File(sessionDir, MANIFEST_NAME), true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /** Düşen kareleri örnek dosyasına NaN olarak yazar; yazıcı iş parçacığında çağrılır. */
+    private void padSamplesFile(long untilSample) throws IOException {
+        if (samplesFileCount >= untilSample) return;
+        if (gapBuffer == null) {
+            gapBuffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            while (gapBuffer.hasRemaining()) gapBuffer.putFloat(Float.NaN);
+        }
+        while (samplesFileCount < untilSample) {
+            int floats = (int) Math.min(gapBuffer.capacity() / 4, untilSample - samplesFileCount);
+            gapBuffer.clear();
+            gapBuffer.limit(floats * 4);
+            while (gapBuffer.hasRemaining()) samplesChannel.write(gapBuffer);
+            samplesFileCount += floats;
+        }
+    }
+
+    /** Oturum klasörüne ek bir metin dosyasını yazıcı iş parçacığında yazar. */
+    public void writeSidecar(String fileName, String content) {
+        writerExecutor.execute(() -> {
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(new File(sessionDir, fileName)), StandardCharsets.UTF_8)) {
+                writer.write(content);
+            } catch (IOException e) {
+                lastError = e;
+            }
+        });
+    }
+
+    /** Açık parçayı yazar ve yazıcıyı kapatır; bekleyen yazmalar tamamlanana kadar en fazla timeoutMs bekler. */
+    public void close(long timeoutMs) throws IOException {
+        breakSegment();
+        // Son parçadan sonra düşen kareler de örnek dosyasında yer tutar
+        final long total = totalSamples;
+        writerExecutor.execute(() -> {
+            try {
+                padSamplesFile(total);
+                samplesChannel.force(false);
+            } catch (IOException e) {
+                lastError = e;
+            }
+        });
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Parça yazımı zaman aşımına uğradı");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parça yazımı kesildi", e);
+        }
+        samplesChannel.close();
+        if (lastError != null) throw lastError;
+    }
+
+    public File getSessionDir() {
+        return sessionDir;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
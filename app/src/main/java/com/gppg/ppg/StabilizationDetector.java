@@ -0,0 +1,128 @@
+package com.gppg.ppg;
+
+/**
+ * Dengelenme aşamasında sinyalin durağanlaştığını artımlı olarak algılar.
+ * <p>
+ * Örnekler sabit süreli bloklara ayrılır ve her blok için ortalama ile standart sapma (Welford)
+ * tutulur. Son {@code requiredBlocks} blokta taban çizgisi kayması (blok ortalamalarının aralığı)
+ * genliğe göre küçükse ve genlikler birbirine yakınsa, ayrıca filtrelerin oturması için gereken
+ * en kısa süre geçmişse sinyal durağan sayılır. Bellek kullanımı sabittir.
+ */
+class StabilizationDetector {
+
+    static final long DEFAULT_BLOCK_NANOS = 1_000_000_000L;
+    static final int DEFAULT_REQUIRED_BLOCKS = 3;
+    // HPF (alpha 0.975) ~120 Hz'de birkaç yüz ms'de oturur; pay bırakılır
+    static final long DEFAULT_MIN_SETTLE_NANOS = 2_000_000_000L;
+    static final float DEFAULT_DRIFT_TOLERANCE = 0.75f;
+    static final float DEFAULT_MAX_AMPLITUDE_RATIO = 1.5f;
+    private static final double MIN_STD = 1e-4;
+
+    private final long blockNanos;
+    private final int requiredBlocks;
+    private final long minSettleNanos;
+    private final float driftTolerance;
+    private final float maxAmplitudeRatio;
+
+    // Tamamlanan blokların halka tamponu
+    private final double[] blockMeans;
+    private final double[] blockStds;
+    private int blockCount = 0;
+    private int blockPointer = 0;
+
+    // Açık blok (Welford)
+    private long startNanos = -1;
+    private long blockStartNanos;
+    private long n;
+    private double mean;
+    private double m2;
+
+    private boolean stationary = false;
+
+    StabilizationDetector() {
+        this(DEFAULT_BLOCK_NANOS, DEFAULT_REQUIRED_BLOCKS, DEFAULT_MIN_SETTLE_NANOS,
+                DEFAULT_DRIFT_TOLERANCE, DEFAULT_MAX_AMPLITUDE_RATIO);
+    }
+
+    /**
+     * @param driftTolerance    izin verilen blok ortalaması aralığı, ortalama standart sapmanın katı olarak
+     * @param maxAmplitudeRatio en büyük / en küçük blok standart sapması oranı üst sınırı
+     */
+    StabilizationDetector(long blockNanos, int requiredBlocks, long minSettleNanos,
+                          float driftTolerance, float maxAmplitudeRatio) {
+        this.blockNanos = blockNanos;
+        this.requiredBlocks = requiredBlocks;
+        this.minSettleNanos = minSettleNanos;
+        this.driftTolerance = driftTolerance;
+        this.maxAmplitudeRatio = maxAmplitudeRatio;
+        this.blockMeans = new double[requiredBlocks];
+        this.blockStds = new double[requiredBlocks];
+    }
+
+    public void reset() {
+        startNanos = -1;
+        blockCount = 0;
+        blockPointer = 0;
+        n = 0;
+        mean = 0;
+        m2 = 0;
+        stationary = false;
+    }
+
+    /** @return sinyal durağan hale geldiyse true */
+    public boolean onFrame(long timestampNanos, float[] samples) {
+        if (startNanos < 0) {
+            startNanos = timestampNanos;
+            blockStartNanos = timestampNanos;
+        }
+        if (timestampNanos - blockStartNanos >= blockNanos) {
+            closeBlock();
+            blockStartNanos = timestampNanos;
+            stationary = timestampNanos - startNanos >= minSettleNanos && evaluate();
+        }
+        for (float sample : samples) {
+            n++;
+            double delta = sample - mean;
+            mean += delta / n;
+            m2 += delta * (sample - mean);
+        }
+        return stationary;
+    }
+
+    private void closeBlock() {
+        if (n > 1) {
+            blockMeans[blockPointer] = mean;
+            blockStds[blockPointer] = Math.sqrt(m2 / (n - 1));
+            blockPointer = (blockPointer + 1) % requiredBlocks;
+            if (blockCount < requiredBlocks) blockCount++;
+        }
+        n = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    private boolean evaluate() {
+        if (blockCount < requiredBlocks) return false;
+        double minMean = Double.MAX_VALUE;
+        double maxMean = -Double.MAX_VALUE;
+        double minStd = Double.MAX_VALUE;
+        double maxStd = 0;
+        double stdSum = 0;
+        for (int i = 0; i < requiredBlocks; i++) {
+            minMean = Math.min(minMean, blockMeans[i]);
+            maxMean = Math.max(maxMean, blockMeans[i]);
+            minStd = Math.min(minStd, blockStds[i]);
+            maxStd = Math.max(maxStd, blockStds[i]);
+            stdSum += blockStds[i];
+        }
+        if (minStd < MIN_STD) return false; // düz sinyal: nabız yok
+        double meanStd = stdSum / requiredBlocks;
+        boolean baselineSettled = (maxMean - minMean) <= driftTolerance * meanStd;
+        boolean amplitudeSettled = maxStd / minStd <= maxAmplitudeRatio;
+        return baselineSettled && amplitudeSettled;
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+}
@@ -0,0 +1,103 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simüle edilmiş zamanlama izleriyle kademe denetleyicisi testleri.
+ */
+public class AnalysisResolutionControllerTest {
+
+    private static final long FRAME_INTERVAL_NANOS = 33_333_333L; // 30 fps
+
+    /** Maliyeti işlenen piksel sayısıyla orantılı varsayan basit cihaz modeli. */
+    private static long simulatedCost(AnalysisResolutionController.Level level, double nanosPerPixel) {
+        return simulatedCost(level, nanosPerPixel, 0);
+    }
+
+    /**
+     * Seyreltilmiş ROI maliyetine ek olarak tüm düzlemi gezen ön eleme maliyeti; bu terim denetleyicinin
+     * piksel oranı modelinde yoktur.
+     */
+    private static long simulatedCost(AnalysisResolutionController.Level level, double nanosPerPixel,
+                                      double nanosPerPlanePixel) {
+        double pixels = (double) level.width * level.height / (level.decimation * level.decimation);
+        double planePixels = (double) level.width * level.height;
+        return (long) (pixels * nanosPerPixel + planePixels * nanosPerPlanePixel);
+    }
+
+    private static void run(AnalysisResolutionController controller, double nanosPerPixel, int frames) {
+        for (int i = 0; i < frames; i++) {
+            long cost = simulatedCost(controller.getCurrentLevel(), nanosPerPixel);
+            controller.onFrame(cost, FRAME_INTERVAL_NANOS);
+        }
+    }
+
+    @Test
+    public void slowDevice_stepsDownUntilUnderBudget() {
+        AnalysisResolutionController controller = new AnalysisResolutionController();
+        // Varsayılan kademede kullanım ~%150
+        run(controller, 2600, 600);
+        assertEquals(0, controller.getLevelIndex());
+    }
+
+    @Test
+    public void fastDevice_stepsUpAndStaysUnderTarget() {
+        AnalysisResolutionController controller = new AnalysisResolutionController();
+        run(controller, 60, 3000);
+        assertTrue(controller.getLevelIndex() > AnalysisResolutionController.DEFAULT_LEVEL_INDEX);
+        long cost = simulatedCost(controller.getCurrentLevel(), 60);
+        assertTrue((double) cost / FRAME_INTERVAL_NANOS <= 0.5);
+    }
+
+    @Test
+    public void stableLoad_doesNotOscillate() {
+        AnalysisResolutionController controller = new AnalysisResolutionController();
+        run(controller, 400, 3000);
+        int settled = controller.getLevelIndex();
+        int changes = 0;
+        for (int i = 0; i < 3000; i++) {
+            long cost = simulatedCost(controller.getCurrentLevel(), 400);
+            if (controller.onFrame(cost, FRAME_INTERVAL_NANOS)) changes++;
+        }
+        assertEquals(0, changes);
+        assertEquals(settled, controller.getLevelIndex());
+    }
+
+    @Test
+    public void fullPlaneCost_failedStepUpIsNotRepeated() {
+        // 120x160/d1 ~%20, 240x320/d2 ~%63: piksel oranı ikisini eşit sayar, ölçüm saymaz
+        AnalysisResolutionController controller = new AnalysisResolutionController();
+        int frames = 18000; // 10 dk @ 30 fps
+        int changes = 0;
+        int changesAfterFirstFailure = 0;
+        int overBudgetFrames = 0;
+        boolean failedOnce = false;
+        for (int i = 0; i < frames; i++) {
+            long cost = simulatedCost(controller.getCurrentLevel(), 100, 250);
+            if ((double) cost / FRAME_INTERVAL_NANOS > 0.5) overBudgetFrames++;
+            int before = controller.getLevelIndex();
+            if (controller.onFrame(cost, FRAME_INTERVAL_NANOS)) {
+                changes++;
+                if (failedOnce && i < 1700) changesAfterFirstFailure++;
+                if (controller.getLevelIndex() < before) failedOnce = true;
+            }
+        }
+        assertTrue(failedOnce);
+        // Geri çekilme süresi dolmadan başarısız kademe yeniden denenmez
+        assertEquals(0, changesAfterFirstFailure);
+        // Yeniden denemeler seyrekleşir: 10 dakikada birkaç gidiş dönüşten fazlası salınımdır
+        assertTrue("değişim " + changes, changes <= 10);
+        assertTrue("bütçe aşımı " + overBudgetFrames, overBudgetFrames < frames / 50);
+        assertEquals(AnalysisResolutionController.DEFAULT_LEVEL_INDEX, controller.getLevelIndex());
+    }
+
+    @Test
+    public void frozen_keepsLevelDuringRecording() {
+        AnalysisResolutionController controller = new AnalysisResolutionController();
+        controller.setFrozen(true);
+        run(controller, 5000, 600);
+        assertEquals(AnalysisResolutionController.DEFAULT_LEVEL_INDEX, controller.getLevelIndex());
+    }
+}
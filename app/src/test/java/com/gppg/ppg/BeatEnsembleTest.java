@@ -0,0 +1,129 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Vuru topluluğu ortalamasının sentetik nabız dalga biçimiyle testleri.
+ */
+public class BeatEnsembleTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    /** Şablonun gerçek biçimle en iyi dairesel kaydırmadaki korelasyonu. */
+    private static double bestShapeCorrelation(float[] template) {
+        int n = template.length;
+        double best = -1;
+        for (int shift = 0; shift < n; shift++) {
+            double[] truth = new double[n];
+            for (int i = 0; i < n; i++) truth[i] = SyntheticFrameSource.pulseShape(((i + shift) % n) / (double) n);
+            best = Math.max(best, pearson(template, truth));
+        }
+        return best;
+    }
+
+    private static double pearson(float[] a, double[] b) {
+        double meanA = 0;
+        double meanB = 0;
+        for (int i = 0; i < a.length; i++) {
+            meanA += a[i];
+            meanB += b[i];
+        }
+        meanA /= a.length;
+        meanB /= b.length;
+        double dot = 0;
+        double squaresA = 0;
+        double squaresB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (a[i] - meanA) * (b[i] - meanB);
+            squaresA += (a[i] - meanA) * (a[i] - meanA);
+            squaresB += (b[i] - meanB) * (b[i] - meanB);
+        }
+        return dot / Math.sqrt(squaresA * squaresB);
+    }
+
+    /**
+     * Hafif kalp hızı değişkenliği, gürültü ve kare zamanlama titremesiyle sinyal üretir.
+     *
+     * @param artifactSeconds bu saniyelerin her birinde ~0,4 sn süren büyük bir hareket artefaktı eklenir
+     */
+    private static void drive(BeatEnsemble ensemble, double seconds, long seed, double... artifactSeconds) {
+        Random random = new Random(seed);
+        double phase = 0;
+        long t = 0;
+        while (t < seconds * 1e9) {
+            double ts = t / 1e9;
+            double heartRate = 1.2 + 0.05 * Math.sin(2 * Math.PI * 0.25 * ts);
+            double value = SyntheticFrameSource.pulseShape(phase) + 0.02 * random.nextGaussian()
+                    + 0.3 * Math.sin(2 * Math.PI * 0.05 * ts);
+            for (double artifact : artifactSeconds) {
+                if (ts >= artifact && ts < artifact + 0.4) value += 3.0 * Math.sin(2 * Math.PI * 5 * (ts - artifact));
+            }
+            float[] zones = new float[4];
+            for (int i = 0; i < zones.length; i++) zones[i] = (float) (value + 0.01 * random.nextGaussian());
+            ensemble.onFrame(t, zones);
+
+            long dt = FRAME_NANOS + (long) (random.nextGaussian() * 2_000_000L);
+            phase = (phase + heartRate * dt / 1e9) % 1.0;
+            t += dt;
+        }
+    }
+
+    @Test
+    public void cleanSignal_templateMatchesPulseShape() {
+        List<BeatEnsemble.Beat> beats = new ArrayList<>();
+        BeatEnsemble ensemble = new BeatEnsemble(beats::add);
+
+        drive(ensemble, 30, 1);
+
+        // ~36 vuru; ilk ve son kısmi vurular hariç
+        assertTrue("kabul: " + ensemble.getAcceptedBeats(), ensemble.getAcceptedBeats() >= 30);
+        assertTrue(ensemble.getRejectedBeats() <= 3);
+        assertTrue(bestShapeCorrelation(ensemble.getTemplate()) > 0.97);
+        assertEquals(833, ensemble.getMeanIntervalNanos() / 1_000_000L, 60);
+        assertEquals(30, ensemble.getSampleRateHz(), 0.5);
+        int accepted = 0;
+        for (BeatEnsemble.Beat beat : beats) {
+            if (beat.accepted) accepted++;
+        }
+        assertEquals(ensemble.getAcceptedBeats(), accepted);
+    }
+
+    @Test
+    public void motionArtifacts_areRejected() {
+        List<BeatEnsemble.Beat> beats = new ArrayList<>();
+        BeatEnsemble ensemble = new BeatEnsemble(beats::add);
+
+        drive(ensemble, 30, 2, 8.3, 17.1, 24.6);
+
+        assertTrue(ensemble.getRejectedBeats() >= 3);
+        assertTrue(bestShapeCorrelation(ensemble.getTemplate()) > 0.95);
+        // Artefakt aralığına düşen hiçbir vuru şablona girmemeli
+        for (BeatEnsemble.Beat beat : beats) {
+            double start = beat.startNanos / 1e9;
+            double end = start + beat.durationNanos / 1e9;
+            for (double artifact : new double[]{8.3, 17.1, 24.6}) {
+                boolean overlaps = start < artifact + 0.4 && end > artifact;
+                if (overlaps) assertFalse("vuru " + start, beat.accepted);
+            }
+        }
+    }
+
+    @Test
+    public void reset_clearsTemplate() {
+        BeatEnsemble ensemble = new BeatEnsemble(null);
+        drive(ensemble, 10, 3);
+        assertTrue(ensemble.getAcceptedBeats() > 0);
+
+        ensemble.reset();
+
+        assertEquals(0, ensemble.getAcceptedBeats());
+        for (float value : ensemble.getTemplate()) assertEquals(0f, value, 0f);
+        assertTrue(ensemble.toCsv().startsWith("template_length,"));
+    }
+}
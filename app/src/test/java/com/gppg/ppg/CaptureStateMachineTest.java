@@ -0,0 +1,132 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Zaman damgası güdümlü kayıt durum makinesinin belirlenimci testleri.
+ */
+public class CaptureStateMachineTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private static class RecordingListener implements CaptureStateMachine.Listener {
+        final List<CaptureStateMachine.State> states = new ArrayList<>();
+        final List<Long> recordedTimestamps = new ArrayList<>();
+        float[] completed;
+        int ticks;
+
+        @Override
+        public void onStateChanged(CaptureStateMachine.State previous, CaptureStateMachine.State current) {
+            states.add(current);
+        }
+
+        @Override
+        public void onTick(CaptureStateMachine.State state, long elapsedMillis, long totalMillis) {
+            ticks++;
+        }
+
+        @Override
+        public void onRecordingSamples(long timestampNanos, float[] samples) {
+            recordedTimestamps.add(timestampNanos);
+        }
+
+        @Override
+        public void onRecordingComplete(float[] samples) {
+            completed = samples;
+        }
+    }
+
+    @Test
+    public void recording_containsExactlyRequestedDuration() {
+        RecordingListener listener = new RecordingListener();
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, listener);
+        SyntheticFrameSource source = new SyntheticFrameSource(25, 4, 1);
+
+        machine.start(30 * SECOND);
+        source.drive(machine, 60 * SECOND, true);
+
+        assertEquals(CaptureStateMachine.State.COMPLETE, machine.getState());
+        assertNotNull(listener.completed);
+        // 25 fps x 30 sn x 4 bölge
+        assertEquals(25 * 30 * 4, listener.completed.length);
+        long first = listener.recordedTimestamps.get(0);
+        long last = listener.recordedTimestamps.get(listener.recordedTimestamps.size() - 1);
+        assertTrue(last - first < 30 * SECOND);
+        assertTrue(last - first >= 30 * SECOND - source.getFrameIntervalNanos());
+        // Aşama başına saniyede bir ilerleme bildirimi
+        assertEquals(10 + 30, listener.ticks);
+    }
+
+    @Test
+    public void droppedFrames_doNotStretchRecording() {
+        RecordingListener listener = new RecordingListener();
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, listener);
+        SyntheticFrameSource source = new SyntheticFrameSource(30, 4, 7)
+                .withJitter(2_000_000L)
+                .withDropProbability(0.2);
+
+        machine.start(30 * SECOND);
+        source.drive(machine, 60 * SECOND, true);
+
+        assertNotNull(listener.completed);
+        long first = listener.recordedTimestamps.get(0);
+        long last = listener.recordedTimestamps.get(listener.recordedTimestamps.size() - 1);
+        assertTrue(last - first < 30 * SECOND);
+        assertEquals(listener.recordedTimestamps.size() * 4, listener.completed.length);
+    }
+
+    @Test
+    public void signalLoss_restartsFromWaitingForFinger() {
+        RecordingListener listener = new RecordingListener();
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, listener);
+        SyntheticFrameSource source = new SyntheticFrameSource(25, 4, 3);
+
+        machine.start(30 * SECOND);
+        source.drive(machine, 15 * SECOND, true);
+        assertEquals(CaptureStateMachine.State.RECORDING, machine.getState());
+
+        source.drive(machine, SECOND, false);
+        assertEquals(CaptureStateMachine.State.WAITING_FOR_FINGER, machine.getState());
+        assertEquals(0, machine.getRecordedSampleCount());
+
+        source.drive(machine, 45 * SECOND, true);
+        assertEquals(CaptureStateMachine.State.COMPLETE, machine.getState());
+        assertEquals(25 * 30 * 4, listener.completed.length);
+    }
+
+    @Test
+    public void unboundedRecording_neverCompletesAndDoesNotBuffer() {
+        RecordingListener listener = new RecordingListener();
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, listener);
+        SyntheticFrameSource source = new SyntheticFrameSource(30, 4, 5);
+
+        machine.start(0);
+        source.drive(machine, 3600 * SECOND, true);
+
+        assertEquals(CaptureStateMachine.State.RECORDING, machine.getState());
+        assertNull(listener.completed);
+        assertEquals(0, machine.getRecordedSampleCount());
+        assertTrue(listener.recordedTimestamps.size() > 3500 * 30);
+    }
+
+    @Test
+    public void reset_returnsToIdleAndIgnoresFrames() {
+        RecordingListener listener = new RecordingListener();
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, listener);
+        SyntheticFrameSource source = new SyntheticFrameSource(30, 1, 9);
+
+        machine.start(30 * SECOND);
+        source.drive(machine, 5 * SECOND, true);
+        machine.reset();
+        int transitions = listener.states.size();
+        source.drive(machine, 60 * SECOND, true);
+
+        assertEquals(CaptureStateMachine.State.IDLE, machine.getState());
+        assertEquals(transitions, listener.states.size());
+    }
+}
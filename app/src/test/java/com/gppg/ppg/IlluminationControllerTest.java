@@ -0,0 +1,210 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Aydınlatma denetleyicisinin basit bir optik model üzerinde testleri.
+ */
+public class IlluminationControllerTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+    private static final int PIXELS = 400;
+
+    /**
+     * V düzlemi modeli: taban değeri parlaklıkla ve kırmızıya yakınlıkla artar, nabız bileşeni ise
+     * farklı bir tonda en güçlüdür. Pikseller ortalama etrafında yayılır ve 255'te kırpılır.
+     */
+    private static class OpticalModel {
+        final Random random = new Random(5);
+        final int[] histogram = new int[IlluminationController.HISTOGRAM_BINS];
+        double heartRateHz = 1.2;
+        // true ise her ayar değişikliğinde nabız evresi rastgele sıçrar
+        boolean phaseJumps = false;
+        private double phaseOffset = 0;
+        private int lastHue = -1;
+        private int lastBrightness = -1;
+
+        static double dcGain(int hue) {
+            return 0.5 + 0.5 * Math.cos(Math.toRadians(hue));
+        }
+
+        static double acGain(int hue) {
+            return Math.max(0, Math.cos(Math.toRadians(hue - 30)));
+        }
+
+        static double meanLevel(int hue, int brightness, double pulse) {
+            return 128 + brightness * 0.5 * dcGain(hue) + brightness * 0.02 * acGain(hue) * pulse;
+        }
+
+        /** ROI ortalamasını döndürür, histogramı doldurur. */
+        float frame(int hue, int brightness, long timestampNanos) {
+            if (phaseJumps && (hue != lastHue || brightness != lastBrightness)) {
+                phaseOffset = random.nextDouble() * 2 * Math.PI;
+            }
+            lastHue = hue;
+            lastBrightness = brightness;
+            double pulse = Math.sin(2 * Math.PI * heartRateHz * timestampNanos / 1e9 + phaseOffset);
+            double level = meanLevel(hue, brightness, pulse);
+            Arrays.fill(histogram, 0);
+            long sum = 0;
+            for (int i = 0; i < PIXELS; i++) {
+                double spread = (i % 25 - 12) + random.nextGaussian() * 0.5;
+                int value = (int) Math.max(0, Math.min(255, Math.round(level + spread)));
+                histogram[value]++;
+                sum += value;
+            }
+            return (float) sum / PIXELS;
+        }
+
+        /** Ayarın doymamış durumda kabaca beklenen AC/DC oranı; doymuşsa -1. */
+        static double idealScore(int hue, int brightness) {
+            double top = meanLevel(hue, brightness, 1) + 12;
+            if (top >= IlluminationController.SATURATION_LEVEL) return -1;
+            double dc = meanLevel(hue, brightness, 0);
+            return brightness * 0.02 * acGain(hue) / Math.sqrt(2) / dc;
+        }
+    }
+
+    /** @return yakınsama anı; {@code searchEnd[0]} büyük adımlı aramanın bittiği an */
+    private static long runUntilConverged(IlluminationController controller, OpticalModel model,
+                                          long maxNanos, long[] searchEnd) {
+        searchEnd[0] = -1;
+        for (long t = 0; t < maxNanos; t += FRAME_NANOS) {
+            float roiMean = model.frame(controller.getHue(), controller.getBrightness(), t);
+            controller.onFrame(t, roiMean, model.histogram, PIXELS);
+            if (searchEnd[0] < 0 && !controller.isSearching()) searchEnd[0] = t;
+            if (controller.getPhase() == IlluminationController.Phase.CONVERGED) return t;
+        }
+        return -1;
+    }
+
+    private static double bestAchievableScore() {
+        double best = 0;
+        for (int hue = 0; hue < 360; hue += 5) {
+            for (int brightness = 0; brightness <= 255; brightness += 5) {
+                best = Math.max(best, OpticalModel.idealScore(hue, brightness));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void convergesQuicklyNearOptimum_fromAnyStart() {
+        // (180, 50): tonda nabız yok (düz bölge), (0, 255): başta doymuş
+        int[][] starts = {{0, 128}, {0, 255}, {90, 100}, {180, 50}, {30, 200}};
+        double best = bestAchievableScore();
+        long[] searchEnd = new long[1];
+        for (int[] start : starts) {
+            String label = "başlangıç " + start[0] + "/" + start[1];
+            IlluminationController controller = new IlluminationController(start[0], start[1]);
+            OpticalModel model = new OpticalModel();
+
+            long convergedAt = runUntilConverged(controller, model, 20_000_000_000L, searchEnd);
+
+            assertTrue(label + " yakınsama " + convergedAt, convergedAt >= 0 && convergedAt <= 4_000_000_000L);
+            assertTrue(label + " arama " + searchEnd[0], searchEnd[0] <= 3_000_000_000L);
+            assertFalse(label, controller.isBudgetExhausted());
+            double achieved = OpticalModel.idealScore(controller.getHue(), controller.getBrightness());
+            assertTrue(label + " puan " + achieved, achieved >= 0.8 * best);
+        }
+    }
+
+    @Test
+    public void slowPulseWithPhaseJumps_stillConvergesNearOptimum() {
+        // 48 vuru/dk ve her adayda farklı evre: fark enerjisi evreye duyarlı olmamalı
+        for (long seed = 1; seed <= 5; seed++) {
+            IlluminationController controller = new IlluminationController(0, 128);
+            OpticalModel model = new OpticalModel();
+            model.random.setSeed(seed);
+            model.heartRateHz = 0.8;
+            model.phaseJumps = true;
+
+            assertTrue(runUntilConverged(controller, model, 20_000_000_000L, new long[1]) >= 0);
+            assertFalse(controller.isBudgetExhausted());
+            double achieved = OpticalModel.idealScore(controller.getHue(), controller.getBrightness());
+            assertTrue("tohum " + seed + " puan " + achieved, achieved >= 0.8 * bestAchievableScore());
+        }
+    }
+
+    @Test
+    public void searchBeforeStabilization_keepsEarlyExit() {
+        // MainActivity ile aynı bağlantı: büyük adımlı arama sürerken durum makinesi sinyali iyi
+        // saymaz, inceltme dengelenmeyle birlikte yürür, kayıtta ayar kilitlenir
+        IlluminationController controller = new IlluminationController(0, 128);
+        OpticalModel model = new OpticalModel();
+        SyntheticFrameSource source = new SyntheticFrameSource(30, 4, 7);
+        long cap = 10_000_000_000L;
+        CaptureStateMachine machine = new CaptureStateMachine(cap, new StabilizationDetector(),
+                new CaptureStateMachine.Listener() {
+                    @Override
+                    public void onStateChanged(CaptureStateMachine.State previous, CaptureStateMachine.State current) {
+                        if (current == CaptureStateMachine.State.STABILIZING) assertFalse(controller.isSearching());
+                        if (current == CaptureStateMachine.State.RECORDING) controller.lock();
+                    }
+
+                    @Override
+                    public void onTick(CaptureStateMachine.State state, long elapsedMillis, long totalMillis) {
+                    }
+
+                    @Override
+                    public void onRecordingSamples(long timestampNanos, float[] samples) {
+                    }
+
+                    @Override
+                    public void onRecordingComplete(float[] samples) {
+                    }
+                });
+        machine.start(30_000_000_000L);
+
+        long t = 0;
+        for (int i = 0; i < 30 * 40 && machine.getState() != CaptureStateMachine.State.RECORDING; i++) {
+            t = source.nextTimestamp();
+            float roiMean = model.frame(controller.getHue(), controller.getBrightness(), t);
+            controller.onFrame(t, roiMean, model.histogram, PIXELS);
+            machine.onFrame(t, !controller.isSearching(), source.samplesAt(t));
+        }
+
+        assertEquals(CaptureStateMachine.State.RECORDING, machine.getState());
+        assertEquals(IlluminationController.Phase.LOCKED, controller.getPhase());
+        long stabilizationMs = machine.getLastStabilizationNanos() / 1_000_000L;
+        assertTrue("dengelenme " + stabilizationMs + " ms", stabilizationMs < 5000);
+        // Dengelenme inceltmeyi beklemediği için toplam hazırlık ~6 sn'yi geçmez
+        assertTrue("kayda geçiş " + t / 1_000_000L + " ms", t <= 6_500_000_000L);
+    }
+
+    @Test
+    public void saturatedStart_backsOffBrightness() {
+        IlluminationController controller = new IlluminationController(0, 255);
+        OpticalModel model = new OpticalModel();
+
+        runUntilConverged(controller, model, 20_000_000_000L, new long[1]);
+
+        assertTrue(OpticalModel.idealScore(controller.getHue(), controller.getBrightness()) > 0);
+        model.frame(controller.getHue(), controller.getBrightness(), 0);
+        int saturated = 0;
+        for (int v = IlluminationController.SATURATION_LEVEL; v < 256; v++) saturated += model.histogram[v];
+        assertTrue((float) saturated / PIXELS <= IlluminationController.SATURATION_LIMIT);
+    }
+
+    @Test
+    public void locked_holdsSettings() {
+        IlluminationController controller = new IlluminationController(90, 100);
+        OpticalModel model = new OpticalModel();
+        controller.lock();
+
+        for (long t = 0; t < 5_000_000_000L; t += FRAME_NANOS) {
+            float roiMean = model.frame(controller.getHue(), controller.getBrightness(), t);
+            assertFalse(controller.onFrame(t, roiMean, model.histogram, PIXELS));
+        }
+        assertEquals(90, controller.getHue());
+        assertEquals(100, controller.getBrightness());
+
+        controller.unlock();
+        assertEquals(IlluminationController.Phase.SEARCHING, controller.getPhase());
+    }
+}
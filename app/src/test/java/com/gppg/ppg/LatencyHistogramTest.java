@@ -0,0 +1,86 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Log-lineer gecikme histogramının kova ve yüzdelik hesabı testleri.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketBoundaries_roundTripAndAreMonotonic() {
+        // 0-7 µs birebir kovalanır
+        for (int micros = 0; micros < 8; micros++) {
+            assertEquals(micros, LatencyHistogram.bucketIndex(micros));
+        }
+        assertEquals(8, LatencyHistogram.bucketIndex(8));
+        assertEquals(15, LatencyHistogram.bucketIndex(15));
+        assertEquals(16, LatencyHistogram.bucketIndex(16));
+        assertEquals(16, LatencyHistogram.bucketIndex(17));
+
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            long lower = LatencyHistogram.bucketLowerBound(i);
+            long next = LatencyHistogram.bucketLowerBound(i + 1);
+            assertTrue("kova " + i, next > lower);
+            assertEquals(i, LatencyHistogram.bucketIndex(lower));
+            assertEquals(i, LatencyHistogram.bucketIndex(next - 1));
+            // Kova genişliği alt sınırın en çok 1/8'i (8'den küçük değerler hariç)
+            if (lower >= 8) assertTrue((next - lower) * 8 <= lower);
+        }
+    }
+
+    @Test
+    public void percentiles_onKnownInputs() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.recordMicros(micros);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500, histogram.getMeanMicros());
+        // Yüzdelik, gerçek değeri içeren kovanın alt sınırıdır
+        assertEquals(LatencyHistogram.bucketLowerBound(LatencyHistogram.bucketIndex(500)),
+                histogram.getPercentileMicros(50));
+        assertEquals(LatencyHistogram.bucketLowerBound(LatencyHistogram.bucketIndex(990)),
+                histogram.getPercentileMicros(99));
+        assertTrue(histogram.getPercentileMicros(50) > 500 * 7 / 8);
+        assertTrue(histogram.getPercentileMicros(99) > 990 * 7 / 8);
+        assertEquals(1, histogram.getPercentileMicros(0));
+    }
+
+    @Test
+    public void overflow_landsInLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(10);
+        histogram.recordMicros(60_000_000L); // ~16 sn sınırının üstü
+        histogram.recordMicros(Long.MAX_VALUE / 2);
+        histogram.recordMicros(-5); // negatif süre 0 sayılır
+
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(60_000_000L));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(4, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(25));
+        assertEquals(LatencyHistogram.bucketLowerBound(LatencyHistogram.BUCKET_COUNT - 1),
+                histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(2_500_000L);
+        assertEquals(2500, histogram.getMaxMicros());
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        histogram.recordMicros(40);
+        assertEquals(40, histogram.getPercentileMicros(50));
+    }
+}
@@ -0,0 +1,217 @@
+package com.gppg.ppg;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Min/max piramidinin kaba kuvvet hesabıyla karşılaştırmalı testleri.
+ */
+public class MinMaxPyramidTest {
+
+    private static final int CHANNELS = 2;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private float[] writeSamples(File file, int frames, long seed) throws Exception {
+        Random random = new Random(seed);
+        float[] data = new float[frames * CHANNELS];
+        for (int frame = 0; frame < frames; frame++) {
+            data[frame * CHANNELS] = (float) Math.sin(frame * 0.01) + 0.1f * (float) random.nextGaussian();
+            data[frame * CHANNELS + 1] = frame;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(data);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+        return data;
+    }
+
+    private static float[] exact(float[] data, int channel, long first, long last) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (long frame = first; frame < last; frame++) {
+            float value = data[(int) frame * CHANNELS + channel];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return new float[]{min, max};
+    }
+
+    @Test
+    public void render_envelopeContainsExactRange() throws Exception {
+        File file = new File(tempFolder.getRoot(), "samples.f32");
+        int frames = 200_003;
+        float[] data = writeSamples(file, frames, 3);
+        float[] min = new float[500];
+        float[] max = new float[500];
+
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            assertEquals(frames, pyramid.getFrameCount());
+            long[][] ranges = {{0, frames}, {12_345, 98_765}, {1_000, 1_400}, {150_000, 200_003}};
+            for (long[] range : ranges) {
+                int columns = pyramid.render(0, range[0], range[1], min.length, min, max);
+                assertTrue(columns > 0 && columns <= min.length);
+                long perColumn = MinMaxPyramid.columnFrames(range[0], range[1], min.length);
+                for (int c = 0; c < columns; c++) {
+                    long first = range[0] + c * perColumn;
+                    float[] truth = exact(data, 0, first, Math.min(range[1], first + perColumn));
+                    assertTrue(min[c] <= truth[0]);
+                    assertTrue(max[c] >= truth[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void render_alignedColumnsAreExact() throws Exception {
+        File file = new File(tempFolder.getRoot(), "samples.f32");
+        int frames = 16 * 8 * 8 * 10;
+        float[] data = writeSamples(file, frames, 7);
+        float[] min = new float[80];
+        float[] max = new float[80];
+
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            assertEquals(80, pyramid.render(1, 0, frames, 80, min, max));
+            for (int c = 0; c < 80; c++) {
+                float[] truth = exact(data, 1, c * 128L, (c + 1) * 128L);
+                assertEquals(truth[0], min[c], 0f);
+                assertEquals(truth[1], max[c], 0f);
+            }
+            // Blok boyundan dar sütunlar ham örneklerden okunur
+            assertEquals(10, pyramid.render(1, 500, 510, 100, min, max));
+            assertEquals(500f, min[0], 0f);
+            assertEquals(509f, max[9], 0f);
+        }
+    }
+
+    @Test
+    public void open_reusesValidLodAndRebuildsStaleOne() throws Exception {
+        File file = new File(tempFolder.getRoot(), "samples.f32");
+        writeSamples(file, 10_000, 1);
+        File lod = MinMaxPyramid.lodFileFor(file);
+        assertEquals("samples.lod", lod.getName());
+
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            assertEquals(10_000, pyramid.getFrameCount());
+            assertTrue(lod.exists());
+        }
+        long builtLength = lod.length();
+        byte[] built = Files.readAllBytes(lod.toPath());
+
+        // Geçerli piramit yeniden yazılmadan kullanılır
+        long stamp = 1_000_000_000_000L;
+        assertTrue(lod.setLastModified(stamp));
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            assertEquals(10_000, pyramid.getFrameCount());
+        }
+        assertEquals(stamp, lod.lastModified());
+        assertArrayEquals(built, Files.readAllBytes(lod.toPath()));
+
+        // Kayıt uzadıysa eski piramit yeniden oluşturulur
+        float[] data = writeSamples(file, 20_000, 2);
+        float[] min = new float[1];
+        float[] max = new float[1];
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            assertEquals(20_000, pyramid.getFrameCount());
+            assertTrue(lod.length() > builtLength);
+            pyramid.render(1, 0, 20_000, 1, min, max);
+            assertEquals(0f, min[0], 0f);
+            assertEquals(19_999f, max[0], 0f);
+        }
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(file, CHANNELS)) {
+            pyramid.render(0, 0, 20_000, 1, min, max);
+            assertEquals(exact(data, 0, 0, 20_000)[1], max[0], 0f);
+        }
+    }
+
+    @Test
+    public void segmentedRecorder_writesContiguousSampleFile() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, 1, 64, 16, 128);
+        for (int i = 0; i < 1000; i++) {
+            recorder.append(i * 33_333_333L, i);
+        }
+        recorder.close(5000);
+
+        float[] min = new float[4];
+        float[] max = new float[4];
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(new File(sessionDir, SegmentedRecorder.SAMPLES_NAME), 1)) {
+            assertEquals(1000, pyramid.getFrameCount());
+            assertEquals(4, pyramid.render(0, 0, 1000, 4, min, max));
+            assertEquals(0f, min[0], 0f);
+            assertEquals(999f, max[3], 0f);
+        }
+    }
+
+    @Test
+    public void segmentedRecorder_droppedFramesKeepChannelLayout() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        int channels = 3;
+        int frames = 5000;
+        // Tek blok var: yazıcı geride kalır, kareler düşer
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, channels, 3, 3, 1);
+        float[] frame = new float[channels];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) frame[c] = i * channels + c;
+            recorder.append(i * 33_333_333L, frame);
+        }
+        recorder.close(5000);
+        assertTrue(recorder.getDroppedSamples() > 0);
+        assertEquals(0, recorder.getDroppedSamples() % channels);
+
+        // Dosyadaki konum örnek indeksine eşit; bir kare ya tamamen vardır ya tamamen NaN'dır
+        File samplesFile = new File(sessionDir, SegmentedRecorder.SAMPLES_NAME);
+        assertEquals((long) frames * channels * 4, samplesFile.length());
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(samplesFile.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        float lowest = Float.POSITIVE_INFINITY;
+        float highest = Float.NEGATIVE_INFINITY;
+        int nanFrames = 0;
+        for (int i = 0; i < frames; i++) {
+            boolean dropped = Float.isNaN(bytes.getFloat((i * channels) * 4));
+            if (dropped) nanFrames++;
+            for (int c = 0; c < channels; c++) {
+                float value = bytes.getFloat((i * channels + c) * 4);
+                if (dropped) {
+                    assertTrue(Float.isNaN(value));
+                } else {
+                    assertEquals(i * channels + c, value, 0f);
+                    if (c == 1) {
+                        lowest = Math.min(lowest, value);
+                        highest = Math.max(highest, value);
+                    }
+                }
+            }
+        }
+        assertEquals(recorder.getDroppedSamples(), (long) nanFrames * channels);
+
+        // Manifest indeksleri dosya konumlarıyla aynı
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        for (int s = 0; s < manifest.getSegmentCount(); s++) {
+            SegmentManifest.Entry entry = manifest.getEntry(s);
+            assertEquals(0, entry.startSample % channels);
+            assertEquals(entry.startSample, (long) manifest.readSegment(s)[0]);
+        }
+
+        float[] min = new float[1];
+        float[] max = new float[1];
+        try (MinMaxPyramid pyramid = MinMaxPyramid.open(samplesFile, channels)) {
+            assertEquals(frames, pyramid.getFrameCount());
+            pyramid.render(1, 0, frames, 1, min, max);
+            assertEquals(lowest, min[0], 0f);
+            assertEquals(highest, max[0], 0f);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kare aralığı tahmini ve düşen kare sayımı testleri.
+ */
+public class PpgMetricsTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    /** {@code frames} kareyi sabit aralıkla verir; son zaman damgasını döndürür. */
+    private static long feed(PpgMetrics metrics, long start, int frames) {
+        long t = start;
+        for (int i = 0; i < frames; i++) {
+            t += FRAME_NANOS;
+            metrics.onFrame(t);
+        }
+        return t;
+    }
+
+    @Test
+    public void steadyAndJitteredFrames_noDrops() {
+        PpgMetrics metrics = new PpgMetrics();
+        Random random = new Random(1);
+        long t = 0;
+        for (int i = 0; i < 900; i++) {
+            // Birkaç ms'lik titreme düşme sayılmamalı
+            t += FRAME_NANOS + (long) (random.nextGaussian() * 1_500_000L);
+            metrics.onFrame(t);
+        }
+
+        assertEquals(900, metrics.getFrameCount());
+        assertEquals(0, metrics.getDroppedFrameCount());
+        assertEquals(FRAME_NANOS, metrics.getNominalFrameIntervalNanos(), 1_000_000L);
+        assertEquals(899, metrics.getFrameGapHistogram().getCount());
+    }
+
+    @Test
+    public void dropThreshold_isOneAndAHalfIntervals() {
+        PpgMetrics below = new PpgMetrics();
+        long t = feed(below, 0, 60);
+        below.onFrame(t + FRAME_NANOS * 14 / 10);
+        assertEquals(0, below.getDroppedFrameCount());
+
+        PpgMetrics above = new PpgMetrics();
+        t = feed(above, 0, 60);
+        above.onFrame(t + FRAME_NANOS * 16 / 10);
+        assertEquals(1, above.getDroppedFrameCount());
+    }
+
+    @Test
+    public void longGap_countsEveryMissedFrame() {
+        PpgMetrics metrics = new PpgMetrics();
+        long t = feed(metrics, 0, 60);
+        // 4 aralık: arada 3 kare yok
+        t += 4 * FRAME_NANOS;
+        metrics.onFrame(t);
+        assertEquals(3, metrics.getDroppedFrameCount());
+        // Düşme aralığı tahmini bozmaz
+        assertEquals(FRAME_NANOS, metrics.getNominalFrameIntervalNanos(), 1000L);
+
+        t += 2 * FRAME_NANOS;
+        metrics.onFrame(t);
+        feed(metrics, t, 30);
+        assertEquals(4, metrics.getDroppedFrameCount());
+        assertEquals(92, metrics.getFrameCount());
+    }
+
+    @Test
+    public void reset_clearsCountsButKeepsInterval() {
+        PpgMetrics metrics = new PpgMetrics();
+        long t = feed(metrics, 0, 60);
+        t += 3 * FRAME_NANOS;
+        metrics.onFrame(t);
+        metrics.record(PpgMetrics.Stage.ROI, 1_000_000L);
+        assertEquals(2, metrics.getDroppedFrameCount());
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getFrameCount());
+        assertEquals(0, metrics.getDroppedFrameCount());
+        assertEquals(0, metrics.getFrameGapHistogram().getCount());
+        assertEquals(0, metrics.getStageHistogram(PpgMetrics.Stage.ROI).getCount());
+        // Kamera sıfırlamada durmaz: aralık tahmini korunur, sonraki kareler düşme sayılmaz
+        assertEquals(FRAME_NANOS, metrics.getNominalFrameIntervalNanos(), 1000L);
+        feed(metrics, t, 30);
+        assertEquals(30, metrics.getFrameCount());
+        assertEquals(0, metrics.getDroppedFrameCount());
+        assertTrue(metrics.toCsv().contains("dropped_frames,0\n"));
+    }
+}
@@ -0,0 +1,148 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Canlı yayının loopback üzerinden uçtan uca testleri.
+ */
+public class PpgStreamServerTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    private static class CollectingListener implements PpgStreamClient.Listener {
+        final List<Long> sampleTimestamps = new ArrayList<>();
+        final List<float[]> samples = new ArrayList<>();
+        final List<CaptureStateMachine.State> states = new ArrayList<>();
+        long metricsFrameCount = -1;
+        int droppedBatches = 0;
+
+        @Override
+        public void onSamples(long timestampNanos, boolean signalGood, float[] values) {
+            sampleTimestamps.add(timestampNanos);
+            samples.add(values);
+        }
+
+        @Override
+        public void onStateChanged(long timestampNanos, CaptureStateMachine.State previous,
+                                   CaptureStateMachine.State current) {
+            states.add(current);
+        }
+
+        @Override
+        public void onMetrics(long timestampNanos, long frameCount, long droppedFrames, long frameIntervalNanos,
+                              int[] stageP95Micros) {
+            metricsFrameCount = frameCount;
+            assertEquals(PpgMetrics.Stage.values().length, stageP95Micros.length);
+        }
+
+        @Override
+        public void onBatchesDropped(int count) {
+            droppedBatches += count;
+        }
+    }
+
+    private static void awaitClients(PpgStreamServer server, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getClientCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.getClientCount());
+    }
+
+    @Test
+    public void loopback_deliversRecordsInOrder() throws Exception {
+        try (PpgStreamServer server = new PpgStreamServer(0);
+             PpgStreamClient client = new PpgStreamClient("127.0.0.1", server.getPort())) {
+            awaitClients(server, 1);
+
+            PpgMetrics metrics = new PpgMetrics();
+            server.publishState(0, CaptureStateMachine.State.IDLE, CaptureStateMachine.State.WAITING_FOR_FINGER);
+            for (int i = 0; i < 300; i++) {
+                long t = i * FRAME_NANOS;
+                metrics.onFrame(t);
+                server.publishSamples(t, true, new float[]{i, -i, 0.5f * i, 1f});
+            }
+            server.publishMetrics(300 * FRAME_NANOS, metrics);
+            server.publishState(300 * FRAME_NANOS, CaptureStateMachine.State.RECORDING, CaptureStateMachine.State.COMPLETE);
+
+            CollectingListener listener = new CollectingListener();
+            while (listener.states.size() < 2) {
+                assertTrue(client.readBatch(listener));
+            }
+
+            assertEquals(0, listener.droppedBatches);
+            assertEquals(300, listener.samples.size());
+            for (int i = 0; i < 300; i++) {
+                assertEquals(i * FRAME_NANOS, (long) listener.sampleTimestamps.get(i));
+                assertEquals(-i, listener.samples.get(i)[1], 0f);
+            }
+            assertEquals(300, listener.metricsFrameCount);
+            assertEquals(CaptureStateMachine.State.COMPLETE, listener.states.get(1));
+            // Kareler tek tek değil, paketler halinde gönderilir
+            assertTrue(server.getSentBatches() < 300 / 2);
+        }
+    }
+
+    @Test
+    public void stalledClient_dropsInsteadOfBlockingProducer() throws Exception {
+        try (PpgStreamServer server = new PpgStreamServer(0, 32 * 1024);
+             SocketChannel stalled = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()))) {
+            stalled.socket().setReceiveBufferSize(4096);
+            awaitClients(server, 1);
+
+            float[] frame = new float[8];
+            long start = System.nanoTime();
+            // ~ 2 saatlik veri; okunmayan istemci soket ve kuyruk tamponlarını doldurur
+            for (int i = 0; i < 200_000; i++) {
+                server.publishSamples(i * FRAME_NANOS, true, frame);
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+
+            assertTrue("üretici " + elapsedMillis + " ms bekledi", elapsedMillis < 5000);
+            assertTrue(server.getDroppedBatches() > 0);
+        }
+    }
+
+    @Test
+    public void disconnectedClient_returnsPooledPackets() throws Exception {
+        try (PpgStreamServer server = new PpgStreamServer(0, 1024 * 1024)) {
+            SocketChannel stalled = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+            stalled.socket().setReceiveBufferSize(4096);
+            awaitClients(server, 1);
+            float[] frame = new float[8];
+            // Okunmayan istemci tüm havuzu tutar
+            for (int i = 0; i < 20_000; i++) {
+                server.publishSamples(i * FRAME_NANOS, true, frame);
+            }
+            assertTrue(server.getDroppedBatches() > 0);
+            stalled.close();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getClientCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, server.getClientCount());
+
+            // Kapanan istemcinin paketleri havuza dönmüş olmalı
+            try (PpgStreamClient client = new PpgStreamClient("127.0.0.1", server.getPort())) {
+                awaitClients(server, 1);
+                long droppedBefore = server.getDroppedBatches();
+                for (int i = 0; i < PpgStreamServer.MAX_PACKETS; i++) {
+                    server.publishState(i, CaptureStateMachine.State.IDLE, CaptureStateMachine.State.WAITING_FOR_FINGER);
+                }
+                assertEquals(droppedBefore, server.getDroppedBatches());
+                CollectingListener listener = new CollectingListener();
+                while (listener.states.size() < PpgStreamServer.MAX_PACKETS) {
+                    assertTrue(client.readBatch(listener));
+                }
+                assertEquals(0, listener.droppedBatches);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Solunum hızı kestiriminin solunumla modüle edilmiş sentetik PPG ile testleri.
+ */
+public class RespirationEstimatorTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    /**
+     * @param breathHz     solunum frekansı
+     * @param baselineMod  taban çizgisi (RIIV) modülasyon genliği
+     * @param amplitudeMod nabız genliği (RIAV) modülasyon oranı
+     * @param rateMod      kalp hızı (RIFV) modülasyonu, Hz
+     */
+    private static RespirationEstimator run(double seconds, double breathHz, double baselineMod,
+                                            double amplitudeMod, double rateMod, long seed) {
+        RespirationEstimator estimator = new RespirationEstimator();
+        BeatEnsemble ensemble = new BeatEnsemble(estimator);
+        Random random = new Random(seed);
+        double phase = 0;
+        long t = 0;
+        while (t < seconds * 1e9) {
+            double ts = t / 1e9;
+            double breath = Math.sin(2 * Math.PI * breathHz * ts);
+            double level = 100 + baselineMod * breath
+                    + (1 + amplitudeMod * breath) * SyntheticFrameSource.pulseShape(phase)
+                    + 0.02 * random.nextGaussian();
+            estimator.onBaseline(t, (float) level);
+            ensemble.onFrame(t, new float[]{(float) level});
+
+            long dt = FRAME_NANOS + (long) (random.nextGaussian() * 2_000_000L);
+            double heartRate = 1.2 + rateMod * breath;
+            phase = (phase + heartRate * dt / 1e9) % 1.0;
+            t += dt;
+        }
+        return estimator;
+    }
+
+    @Test
+    public void allModulations_fuseToBreathingRate() {
+        RespirationEstimator estimator = run(40, 0.25, 0.3, 0.2, 0.08, 1);
+
+        assertEquals(15f, estimator.getRespirationRate(), 1.5f);
+        assertEquals(15f, estimator.getRate(RespirationEstimator.Source.RIIV), 1.5f);
+        assertEquals(15f, estimator.getRate(RespirationEstimator.Source.RIAV), 1.5f);
+        assertEquals(15f, estimator.getRate(RespirationEstimator.Source.RIFV), 1.5f);
+    }
+
+    @Test
+    public void amplitudeModulationOnly_isStillDetected() {
+        RespirationEstimator estimator = run(40, 0.2, 0, 0.3, 0, 2);
+
+        assertEquals(12f, estimator.getRate(RespirationEstimator.Source.RIAV), 1.5f);
+        assertEquals(12f, estimator.getRespirationRate(), 1.5f);
+    }
+
+    @Test
+    public void noBreathing_cardiacHarmonicsAreNotReported() {
+        // 1,2 Hz nabzın 3. harmoniği 4 Hz ızgarada 0,4 Hz'e (24/dk) örtüşebilir
+        RespirationEstimator estimator = run(40, 0.25, 0, 0, 0, 4);
+
+        assertTrue(Float.isNaN(estimator.getRespirationRate()));
+    }
+
+    @Test
+    public void shortRecording_hasNoEstimate() {
+        RespirationEstimator estimator = run(10, 0.25, 0.3, 0.2, 0.08, 3);
+
+        assertTrue(Float.isNaN(estimator.getRespirationRate()));
+        assertTrue(estimator.toCsv().startsWith("source,rate_bpm,prominence\nfused,"));
+    }
+}
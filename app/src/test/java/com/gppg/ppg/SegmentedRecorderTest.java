@@ -0,0 +1,152 @@
+package com.gppg.ppg;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parçalı kayıt ve manifest üzerinden yeniden birleştirme testleri.
+ */
+public class SegmentedRecorderTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void segments_reassembleWithoutGaps() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, 1, 100, 10, 128);
+        for (int i = 0; i < 1050; i++) {
+            recorder.append(i * FRAME_NANOS, i);
+        }
+        recorder.close(5000);
+
+        // Parçalar örnek dosyasındaki aralıklardır; veri ikinci kez yazılmaz
+        String[] files = sessionDir.list();
+        Arrays.sort(files);
+        assertArrayEquals(new String[]{SegmentedRecorder.MANIFEST_NAME, SegmentedRecorder.SAMPLES_NAME}, files);
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        assertEquals(11, manifest.getSegmentCount());
+        assertEquals(1050, manifest.getStoredSampleCount());
+        assertTrue(manifest.isContiguous(2 * FRAME_NANOS));
+
+        int expected = 0;
+        for (int s = 0; s < manifest.getSegmentCount(); s++) {
+            for (float value : manifest.readSegment(s)) {
+                assertEquals(expected++, value, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void signalLossGap_isNotContiguous() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, 1, 100, 10, 128);
+        for (int i = 0; i < 150; i++) {
+            recorder.append(i * FRAME_NANOS, i);
+        }
+        // Sinyal kaybı: parça erken kapanır, kayıt 5 sn sonra sürer; örnek indeksi atlamaz
+        recorder.breakSegment();
+        long resumeNanos = 150 * FRAME_NANOS + 5_000_000_000L;
+        for (int i = 150; i < 300; i++) {
+            recorder.append(resumeNanos + (i - 150) * FRAME_NANOS, i);
+        }
+        recorder.close(5000);
+
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        assertEquals(300, manifest.getStoredSampleCount());
+        assertFalse(manifest.isContiguous(2 * FRAME_NANOS));
+        assertTrue(manifest.isContiguous(6_000_000_000L));
+    }
+
+    @Test
+    public void findSegment_locatesSampleByTime() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, 1, 100, 10, 128);
+        for (int i = 0; i < 500; i++) {
+            recorder.append(i * FRAME_NANOS, i);
+        }
+        recorder.close(5000);
+
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        long target = 321 * FRAME_NANOS;
+        int position = manifest.findSegment(target);
+        assertEquals(3, position);
+        int offset = manifest.offsetWithinSegment(position, target);
+        assertEquals(321f, manifest.readSegment(position)[offset], 0f);
+        assertEquals(-1, manifest.findSegment(-1));
+    }
+
+    @Test
+    public void slowWriter_dropsSamplesButKeepsAccounting() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, 1, 10, 10, 1);
+        for (int i = 0; i < 5000; i++) {
+            recorder.append(i * FRAME_NANOS, i);
+        }
+        recorder.close(5000);
+
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        assertEquals(5000, manifest.getStoredSampleCount() + recorder.getDroppedSamples());
+        // Her parça kendi içinde kesintisizdir; ilk örneği başlangıç indeksine eşittir
+        for (int s = 0; s < manifest.getSegmentCount(); s++) {
+            assertEquals(manifest.getEntry(s).startSample, (long) manifest.readSegment(s)[0]);
+        }
+    }
+
+    @Test
+    public void crashLoss_isBoundedByOneSegment() throws Exception {
+        File sessionDir = new File(tempFolder.getRoot(), "session");
+        int channels = 4;
+        int segmentFrames = 60;
+        SegmentedRecorder recorder = new SegmentedRecorder(sessionDir, channels, segmentFrames, 10, segmentFrames / 10);
+        float[] frame = new float[channels];
+        for (int i = 0; i < 3000; i++) {
+            for (int c = 0; c < channels; c++) frame[c] = i * channels + c;
+            recorder.append(i * FRAME_NANOS, frame);
+            if (i % 25 == 0) {
+                // Herhangi bir anda çökülse manifest'e girmemiş veri en çok bir parçadır
+                long durable = SegmentManifest.read(sessionDir).getStoredSampleCount();
+                long unsaved = recorder.getTotalSamples() - recorder.getDroppedSamples() - durable;
+                assertTrue("kaydedilmemiş " + unsaved, unsaved <= (long) segmentFrames * channels);
+            }
+        }
+
+        // Çökme: close çağrılmaz. Yazıcı boşalınca yalnızca bellekteki açık blok eksik kalır.
+        long deadline = System.currentTimeMillis() + 5000;
+        long unsaved;
+        do {
+            Thread.sleep(10);
+            unsaved = recorder.getTotalSamples() - recorder.getDroppedSamples()
+                    - SegmentManifest.read(sessionDir).getStoredSampleCount();
+        } while (unsaved > 10 * channels && System.currentTimeMillis() < deadline);
+        assertTrue("kaydedilmemiş " + unsaved, unsaved <= 10 * channels);
+
+        // Son (yarım) parça diske inmiş bloklarıyla okunabilir
+        SegmentManifest manifest = SegmentManifest.read(sessionDir);
+        int last = manifest.getSegmentCount() - 1;
+        SegmentManifest.Entry entry = manifest.getEntry(last);
+        float[] samples = manifest.readSegment(last);
+        assertEquals(entry.sampleCount, samples.length);
+        assertEquals(entry.startSample + entry.sampleCount - 1, (long) samples[samples.length - 1]);
+        recorder.close(5000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void channelCountChange_isRejected() throws Exception {
+        SegmentedRecorder recorder = new SegmentedRecorder(new File(tempFolder.getRoot(), "session"), 4, 60);
+        recorder.append(0, new float[4]);
+        try {
+            recorder.append(FRAME_NANOS, new float[2]);
+        } finally {
+            recorder.close(5000);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.gppg.ppg;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Durağanlık algılayıcısının sentetik sinyallerle testleri.
+ */
+public class StabilizationDetectorTest {
+
+    private static final long FRAME_NANOS = 40_000_000L; // 25 fps
+    private static final long SECOND = 1_000_000_000L;
+
+    /** Sinyalin durağan sayıldığı ilk zaman; hiç durağanlaşmazsa -1. */
+    private static long timeToStationary(StabilizationDetector detector, double seconds,
+                                         double driftAmplitude, double driftTauSeconds, double pulseAmplitude) {
+        Random random = new Random(42);
+        for (long t = 0; t < seconds * SECOND; t += FRAME_NANOS) {
+            float[] samples = new float[4];
+            for (int i = 0; i < 4; i++) {
+                double ts = (t + i * FRAME_NANOS / 4.0) / 1e9;
+                double drift = driftAmplitude * Math.exp(-ts / driftTauSeconds);
+                samples[i] = (float) (drift + pulseAmplitude * Math.sin(2 * Math.PI * 1.2 * ts)
+                        + 0.02 * random.nextGaussian());
+            }
+            if (detector.onFrame(t, samples)) return t;
+        }
+        return -1;
+    }
+
+    @Test
+    public void stationarySignal_convergesEarly() {
+        long t = timeToStationary(new StabilizationDetector(), 10, 0, 1, 0.5);
+        assertTrue("durağanlık zamanı: " + t, t >= 0 && t <= 5 * SECOND);
+    }
+
+    @Test
+    public void driftingBaseline_waitsUntilSettled() {
+        long settled = timeToStationary(new StabilizationDetector(), 10, 0, 1, 0.5);
+        long drifting = timeToStationary(new StabilizationDetector(), 10, 5.0, 1.5, 0.5);
+        assertTrue(drifting < 0 || drifting > settled + SECOND);
+    }
+
+    @Test
+    public void flatSignal_neverConverges() {
+        StabilizationDetector detector = new StabilizationDetector();
+        for (long t = 0; t < 10 * SECOND; t += FRAME_NANOS) {
+            assertFalse(detector.onFrame(t, new float[]{-150f, -150f, -150f, -150f}));
+        }
+    }
+
+    @Test
+    public void captureStateMachine_startsRecordingOnConvergence() {
+        CaptureStateMachine.Listener ignore = new CaptureStateMachine.Listener() {
+            @Override public void onStateChanged(CaptureStateMachine.State previous, CaptureStateMachine.State current) {}
+            @Override public void onTick(CaptureStateMachine.State state, long elapsedMillis, long totalMillis) {}
+            @Override public void onRecordingSamples(long timestampNanos, float[] samples) {}
+            @Override public void onRecordingComplete(float[] samples) {}
+        };
+        CaptureStateMachine machine = new CaptureStateMachine(10 * SECOND, new StabilizationDetector(), ignore);
+        SyntheticFrameSource source = new SyntheticFrameSource(25, 4, 11).withPulse(1.2, 0.5f);
+
+        machine.start(30 * SECOND);
+        source.drive(machine, 6 * SECOND, true);
+
+        assertEquals(CaptureStateMachine.State.RECORDING, machine.getState());
+        assertTrue(machine.getLastStabilizationNanos() < 10 * SECOND);
+    }
+}
@@ -0,0 +1,92 @@
+package com.gppg.ppg;
+
+import java.util.Random;
+
+/**
+ * Testler için sentetik kamera karesi üreticisi: sabit kare hızında zaman damgaları, isteğe bağlı
+ * titreme ve düşen kareler, ve bölge başına sinüs biçimli PPG örnekleri üretir. Gerçek zamandan
+ * bağımsızdır; durum makinesini istenen hızda sürebilir.
+ */
+class SyntheticFrameSource {
+
+    private final long frameIntervalNanos;
+    private final int zoneCount;
+    private final Random random;
+    private long jitterNanos = 0;
+    private double dropProbability = 0;
+    private double heartRateHz = 1.2;
+    private float amplitude = 0.5f;
+    private float baseline = 0f;
+
+    private long nextTimestampNanos = 0;
+
+    SyntheticFrameSource(double fps, int zoneCount, long seed) {
+        this.frameIntervalNanos = (long) (1_000_000_000L / fps);
+        this.zoneCount = zoneCount;
+        this.random = new Random(seed);
+    }
+
+    SyntheticFrameSource withJitter(long jitterNanos) {
+        this.jitterNanos = jitterNanos;
+        return this;
+    }
+
+    SyntheticFrameSource withDropProbability(double dropProbability) {
+        this.dropProbability = dropProbability;
+        return this;
+    }
+
+    SyntheticFrameSource withPulse(double heartRateHz, float amplitude) {
+        this.heartRateHz = heartRateHz;
+        this.amplitude = amplitude;
+        return this;
+    }
+
+    SyntheticFrameSource withBaseline(float baseline) {
+        this.baseline = baseline;
+        return this;
+    }
+
+    /** Sistolik tepe ve dikrotik çentik içeren bir nabız biçimi, faz [0, 1). */
+    static double pulseShape(double phase) {
+        return Math.exp(-Math.pow((phase - 0.25) / 0.08, 2)) + 0.4 * Math.exp(-Math.pow((phase - 0.55) / 0.1, 2));
+    }
+
+    long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    int getZoneCount() {
+        return zoneCount;
+    }
+
+    /** Bir sonraki (düşmemiş) karenin zaman damgası. */
+    long nextTimestamp() {
+        do {
+            nextTimestampNanos += frameIntervalNanos;
+        } while (dropProbability > 0 && random.nextDouble() < dropProbability);
+        long jitter = jitterNanos > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterNanos) : 0;
+        return nextTimestampNanos + jitter;
+    }
+
+    /** Verilen zaman damgası için bölge örnekleri (bölgeler kare içinde ardışık satırlardır). */
+    float[] samplesAt(long timestampNanos) {
+        float[] samples = new float[zoneCount];
+        for (int i = 0; i < zoneCount; i++) {
+            double t = (timestampNanos + (double) i * frameIntervalNanos / zoneCount) / 1e9;
+            samples[i] = baseline + (float) (amplitude * Math.sin(2 * Math.PI * heartRateHz * t));
+        }
+        return samples;
+    }
+
+    /** Makineye verilen süre boyunca kare besler; son zaman damgasını döndürür. */
+    long drive(CaptureStateMachine machine, long durationNanos, boolean signalGood) {
+        long end = nextTimestampNanos + durationNanos;
+        long timestamp = nextTimestampNanos;
+        while (nextTimestampNanos < end) {
+            timestamp = nextTimestamp();
+            machine.onFrame(timestamp, signalGood, samplesAt(timestamp));
+        }
+        return timestamp;
+    }
+}
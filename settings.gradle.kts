@@ -25,4 +25,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "PPG"
 include(":app")
+include(":tools")
  
\ No newline at end of file
@@ -0,0 +1,28 @@
+// Uygulamaya paketlenmeyen iş istasyonu araçları (düz JVM)
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    main {
+        java {
+            // Protokol ve durum sınıfları Android'e bağımlı değil; kopyalanmadan uygulamadan derlenir
+            srcDir("../app/src/main/java")
+            include(
+                "com/gppg/ppg/PpgStreamClient.java",
+                "com/gppg/ppg/PpgStreamProtocol.java",
+                "com/gppg/ppg/CaptureStateMachine.java",
+                "com/gppg/ppg/StabilizationDetector.java"
+            )
+        }
+    }
+}
+
+application {
+    mainClass.set("com.gppg.ppg.PpgStreamClient")
+}
@@ -0,0 +1,158 @@
+package com.gppg.ppg;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link PpgStreamServer} yayınını okuyan JVM istemcisi; iş istasyonunda kayıt için
+ * {@link #main} ile CSV'ye yazar. Cihaza USB üzerinden {@code adb forward tcp:8765 tcp:8765}
+ * ile bağlanılabilir. Uygulamaya paketlenmez; {@code :tools} modülünde derlenir ve
+ * {@code ./gradlew :tools:run --args="127.0.0.1 8765 kayit.csv"} ile çalıştırılır.
+ */
+class PpgStreamClient implements Closeable {
+
+    interface Listener {
+        void onSamples(long timestampNanos, boolean signalGood, float[] samples);
+
+        void onStateChanged(long timestampNanos, CaptureStateMachine.State previous, CaptureStateMachine.State current);
+
+        void onMetrics(long timestampNanos, long frameCount, long droppedFrames, long frameIntervalNanos,
+                       int[] stageP95Micros);
+
+        /** Sunucunun bu istemci için düşürdüğü paket sayısı (sıra numarası boşluğu). */
+        void onBatchesDropped(int count);
+    }
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(PpgStreamProtocol.HEADER_BYTES);
+    private ByteBuffer body = ByteBuffer.allocate(16 * 1024);
+    private int expectedSequence = -1;
+
+    PpgStreamClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /** Bir paketi okuyup kayıtlarını dinleyiciye verir; bağlantı kapanmışsa false döner. */
+    public boolean readBatch(Listener listener) throws IOException {
+        header.clear();
+        if (!readFully(header)) return false;
+        header.flip();
+        if (header.getInt() != PpgStreamProtocol.MAGIC) throw new IOException("Geçersiz paket başlığı");
+        int length = header.getInt();
+        int sequence = header.getInt();
+        if (expectedSequence >= 0 && sequence != expectedSequence) {
+            listener.onBatchesDropped(sequence - expectedSequence);
+        }
+        expectedSequence = sequence + 1;
+
+        if (body.capacity() < length) body = ByteBuffer.allocate(length);
+        body.clear().limit(length);
+        if (!readFully(body)) throw new EOFException("Paket yarım kaldı");
+        body.flip();
+        while (body.hasRemaining()) {
+            byte type = body.get();
+            long timestampNanos = body.getLong();
+            switch (type) {
+                case PpgStreamProtocol.TYPE_SAMPLES: {
+                    boolean good = (body.get() & PpgStreamProtocol.FLAG_SIGNAL_GOOD) != 0;
+                    float[] samples = new float[body.getShort()];
+                    for (int i = 0; i < samples.length; i++) samples[i] = body.getFloat();
+                    listener.onSamples(timestampNanos, good, samples);
+                    break;
+                }
+                case PpgStreamProtocol.TYPE_STATE: {
+                    CaptureStateMachine.State[] states = CaptureStateMachine.State.values();
+                    CaptureStateMachine.State previous = states[body.get()];
+                    CaptureStateMachine.State current = states[body.get()];
+                    listener.onStateChanged(timestampNanos, previous, current);
+                    break;
+                }
+                case PpgStreamProtocol.TYPE_METRICS: {
+                    long frameCount = body.getLong();
+                    long droppedFrames = body.getLong();
+                    long intervalNanos = body.getLong();
+                    int[] p95 = new int[body.get()];
+                    for (int i = 0; i < p95.length; i++) p95[i] = body.getInt();
+                    listener.onMetrics(timestampNanos, frameCount, droppedFrames, intervalNanos, p95);
+                    break;
+                }
+                default:
+                    throw new IOException("Bilinmeyen kayıt türü: " + type);
+            }
+        }
+        return true;
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) return false;
+                throw new EOFException("Bağlantı paket ortasında kapandı");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Kullanım: {@code PpgStreamClient <host> <port> <çıktı.csv>}. Her örnek, durum geçişi ve
+     * ölçüm kaydı bir satır olarak yazılır; bağlantı kapanana kadar çalışır.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Kullanım: PpgStreamClient <host> <port> <cikti.csv>");
+            System.exit(2);
+        }
+        try (PpgStreamClient client = new PpgStreamClient(args[0], Integer.parseInt(args[1]));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                     new FileOutputStream(args[2]), StandardCharsets.UTF_8))) {
+            out.println("type,timestamp_ns,values");
+            Listener writer = new Listener() {
+                @Override
+                public void onSamples(long timestampNanos, boolean signalGood, float[] samples) {
+                    StringBuilder line = new StringBuilder("samples,").append(timestampNanos).append(',')
+                            .append(signalGood ? "good" : "bad");
+                    for (float sample : samples) line.append(',').append(sample);
+                    out.println(line);
+                }
+
+                @Override
+                public void onStateChanged(long timestampNanos, CaptureStateMachine.State previous,
+                                           CaptureStateMachine.State current) {
+                    out.println("state," + timestampNanos + "," + previous + "," + current);
+                }
+
+                @Override
+                public void onMetrics(long timestampNanos, long frameCount, long droppedFrames,
+                                      long frameIntervalNanos, int[] stageP95Micros) {
+                    StringBuilder line = new StringBuilder("metrics,").append(timestampNanos).append(',')
+                            .append(frameCount).append(',').append(droppedFrames).append(',')
+                            .append(frameIntervalNanos);
+                    for (int micros : stageP95Micros) line.append(',').append(micros);
+                    out.println(line);
+                }
+
+                @Override
+                public void onBatchesDropped(int count) {
+                    System.err.println(count + " paket sunucuda düşürüldü");
+                }
+            };
+            while (client.readBatch(writer)) {
+                out.flush();
+            }
+        }
+    }
+}